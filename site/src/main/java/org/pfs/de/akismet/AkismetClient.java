@@ -3,10 +3,6 @@
  */
 package org.pfs.de.akismet;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import org.pfs.de.akismet.rest.AkismetApi;
 import org.pfs.de.akismet.rest.AkismetRestClient;
 import org.pfs.de.akismet.rest.AkismetUrls;
@@ -46,21 +42,21 @@ public class AkismetClient {
 	private AkismetApi client;
 	
 	/**
-	 * Cache keys verified by the API. This prevents additional calls to the API
-	 * if the key has been previously verified. Keys where the verification failed are
-	 * not saved in case the verification failed for temporary reasons (e.g. network
-	 * issue, server downtime).
+	 * Cache for keys verified by the API, shared by all clients. This prevents
+	 * additional calls to the API if the key has been verified recently.
 	 */
-	private static Set<String> verifiedKeys = Collections.synchronizedSet(new HashSet<String>());
+	private static final AkismetKeyCache keyCache = new AkismetKeyCache();
 	
 	/**
-	 * This constructor is strictly intended to be used for testing. It allows
-	 * injection of a test API implementing the {@link AkismetApi} interface.
+	 * Create a new Akismet client using the given API instance. Use this
+	 * constructor to share a configured API instance (e.g. with a pooled
+	 * HTTP transport) between clients, or to inject a test API implementing
+	 * the {@link AkismetApi} interface.
 	 * @param api The API instance.
 	 * @param apiKey The API key.
 	 * @param homepage Home page URL.
 	 */
-	AkismetClient(AkismetApi api, String apiKey, String homepage) {
+	public AkismetClient(AkismetApi api, String apiKey, String homepage) {
 		if (apiKey == null || apiKey.trim().equals("")) {
 			throw new IllegalArgumentException("Akismet API key may not be null or empty");
 		}
@@ -80,24 +76,21 @@ public class AkismetClient {
 		this(new AkismetRestClient(), apiKey, homepage);
 	}
 	
-	
-	
 	/**
 	 * Check if the API key is valid. Additional information from the server is logged.
 	 * @return <code>true</code> if the API key is valid, <code>false</code> otherwise.
 	 * @throws AkismetException
 	 */
 	public boolean checkApiKey() throws AkismetException {
-		if (verifiedKeys.contains(apiKey)) {
-			//Previous check successful
-			return true;
-		}
-		boolean checkResult = client.checkApiKey(apiKey, homepage);
-		if (checkResult == true) {
-			//Cache successful check result
-			verifiedKeys.add(apiKey);
-		}
-		return checkResult;
+		return keyCache.checkApiKey(client, apiKey, homepage);
+	}
+	
+	/**
+	 * Get the cache for verified keys shared by all clients.
+	 * @return The cache.
+	 */
+	public static AkismetKeyCache getKeyCache() {
+		return keyCache;
 	}
 	
 	/**
@@ -4,9 +4,13 @@
 package org.pfs.de.akismet;
 
 import java.nio.charset.Charset;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
 /**
  * Data of a comment or post to be submitted to Akismet for spam checks.
  * 
@@ -15,6 +19,31 @@ import java.util.Locale;
  */
 public class AkismetCommentData {
 
+	/**
+	 * JCR mixin node type: Comment data stored for a pending Akismet check.
+	 */
+	public static final String NODE_TYPE_CHECK_REQUEST = "website:akismetcheckrequest";
+
+	/**
+	 * JCR node property: Number of failed check attempts.
+	 */
+	public static final String NODE_PROPERTY_CHECK_ATTEMPTS = "website:akismetCheckAttempts";
+
+	private static final String NODE_PROPERTY_BLOG_URL = "website:akismetBlogUrl";
+	private static final String NODE_PROPERTY_USER_IP = "website:akismetUserIp";
+	private static final String NODE_PROPERTY_USER_AGENT = "website:akismetUserAgent";
+	private static final String NODE_PROPERTY_REFERRER = "website:akismetReferrer";
+	private static final String NODE_PROPERTY_PERMALINK = "website:akismetPermalink";
+	private static final String NODE_PROPERTY_COMMENT_TYPE = "website:akismetCommentType";
+	private static final String NODE_PROPERTY_AUTHOR_NAME = "website:akismetAuthorName";
+	private static final String NODE_PROPERTY_AUTHOR_EMAIL = "website:akismetAuthorEmail";
+	private static final String NODE_PROPERTY_AUTHOR_URL = "website:akismetAuthorUrl";
+	private static final String NODE_PROPERTY_CONTENT = "website:akismetContent";
+	private static final String NODE_PROPERTY_COMMENT_DATE = "website:akismetCommentDate";
+	private static final String NODE_PROPERTY_DOCUMENT_DATE = "website:akismetDocumentDate";
+	private static final String NODE_PROPERTY_LANGUAGE = "website:akismetLanguage";
+	private static final String NODE_PROPERTY_CHARSET = "website:akismetCharset";
+
 	/**
 	 * Identifier of the comment.
 	 */
@@ -313,4 +342,99 @@ public class AkismetCommentData {
 	public void setIdentifier(String identifier) {
 		this.identifier = identifier;
 	}
+
+	/**
+	 * Store the comment data on a JCR node, so the check can be performed
+	 * later. Adds the mixin {@link #NODE_TYPE_CHECK_REQUEST} to the node. The
+	 * session is not saved.
+	 * @param targetNode The target node.
+	 * @throws RepositoryException
+	 */
+	public void save(Node targetNode) throws RepositoryException {
+		if (!targetNode.isNodeType(NODE_TYPE_CHECK_REQUEST)) {
+			targetNode.addMixin(NODE_TYPE_CHECK_REQUEST);
+		}
+		targetNode.setProperty(NODE_PROPERTY_BLOG_URL, blogUrl);
+		targetNode.setProperty(NODE_PROPERTY_USER_IP, userIp);
+		targetNode.setProperty(NODE_PROPERTY_USER_AGENT, userAgent);
+		targetNode.setProperty(NODE_PROPERTY_REFERRER, referrer);
+		targetNode.setProperty(NODE_PROPERTY_PERMALINK, permalink);
+		targetNode.setProperty(NODE_PROPERTY_COMMENT_TYPE, commentType == null ? null : commentType.getType());
+		targetNode.setProperty(NODE_PROPERTY_AUTHOR_NAME, authorName);
+		targetNode.setProperty(NODE_PROPERTY_AUTHOR_EMAIL, authorEmail);
+		targetNode.setProperty(NODE_PROPERTY_AUTHOR_URL, authorUrl);
+		targetNode.setProperty(NODE_PROPERTY_CONTENT, commentContent);
+		targetNode.setProperty(NODE_PROPERTY_COMMENT_DATE, toCalendar(commentDate));
+		targetNode.setProperty(NODE_PROPERTY_DOCUMENT_DATE, toCalendar(documentDate));
+		targetNode.setProperty(NODE_PROPERTY_LANGUAGE, language == null ? null : language.toString());
+		targetNode.setProperty(NODE_PROPERTY_CHARSET, charset == null ? null : charset.name());
+		if (!targetNode.hasProperty(NODE_PROPERTY_CHECK_ATTEMPTS)) {
+			targetNode.setProperty(NODE_PROPERTY_CHECK_ATTEMPTS, 0L);
+		}
+	}
+
+	/**
+	 * Read comment data stored by {@link #save(Node)}.
+	 * @param node The node holding the comment data.
+	 * @return The comment data, or <code>null</code> if the node holds no
+	 * comment data.
+	 * @throws RepositoryException
+	 */
+	public static AkismetCommentData read(Node node) throws RepositoryException {
+		if (!node.isNodeType(NODE_TYPE_CHECK_REQUEST)) {
+			return null;
+		}
+		AkismetCommentData data = new AkismetCommentData();
+		data.setIdentifier(node.getIdentifier());
+		data.setBlogUrl(getString(node, NODE_PROPERTY_BLOG_URL));
+		data.setUserIp(getString(node, NODE_PROPERTY_USER_IP));
+		data.setUserAgent(getString(node, NODE_PROPERTY_USER_AGENT));
+		data.setReferrer(getString(node, NODE_PROPERTY_REFERRER));
+		data.setPermalink(getString(node, NODE_PROPERTY_PERMALINK));
+		data.setCommentType(AkismetCommentType.getCommentType(getString(node, NODE_PROPERTY_COMMENT_TYPE)));
+		data.setAuthorName(getString(node, NODE_PROPERTY_AUTHOR_NAME));
+		data.setAuthorEmail(getString(node, NODE_PROPERTY_AUTHOR_EMAIL));
+		data.setAuthorUrl(getString(node, NODE_PROPERTY_AUTHOR_URL));
+		data.setCommentContent(getString(node, NODE_PROPERTY_CONTENT));
+		data.setCommentDate(getDate(node, NODE_PROPERTY_COMMENT_DATE));
+		data.setDocumentDate(getDate(node, NODE_PROPERTY_DOCUMENT_DATE));
+		String language = getString(node, NODE_PROPERTY_LANGUAGE);
+		if (language != null) {
+			String[] parts = language.split("_", 3);
+			data.setLanguage(parts.length == 1 ? new Locale(parts[0]) : parts.length == 2 ? new Locale(parts[0], parts[1]) : new Locale(parts[0], parts[1], parts[2]));
+		}
+		String charset = getString(node, NODE_PROPERTY_CHARSET);
+		if (charset != null && Charset.isSupported(charset)) {
+			data.setCharset(Charset.forName(charset));
+		}
+		return data;
+	}
+
+	/**
+	 * Remove stored comment data from a node.
+	 * @param node The node.
+	 * @throws RepositoryException
+	 */
+	public static void remove(Node node) throws RepositoryException {
+		if (node.isNodeType(NODE_TYPE_CHECK_REQUEST)) {
+			node.removeMixin(NODE_TYPE_CHECK_REQUEST);
+		}
+	}
+
+	private static String getString(Node node, String property) throws RepositoryException {
+		return node.hasProperty(property) ? node.getProperty(property).getString() : null;
+	}
+
+	private static Date getDate(Node node, String property) throws RepositoryException {
+		return node.hasProperty(property) ? node.getProperty(property).getDate().getTime() : null;
+	}
+
+	private static Calendar toCalendar(Date date) {
+		if (date == null) {
+			return null;
+		}
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		return calendar;
+	}
 }
@@ -69,4 +69,19 @@ public enum AkismetCommentType {
 	public String getType() {
 		return type;
 	}
+
+	/**
+	 * Get the comment type from the type identifier.
+	 * @param type The type identifier, as expected by Akismet.
+	 * @return The comment type, or <code>null</code> if no comment
+	 * type corresponds to the identifier.
+	 */
+	public static AkismetCommentType getCommentType(String type) {
+		for (AkismetCommentType commentType : values()) {
+			if (commentType.type.equals(type)) {
+				return commentType;
+			}
+		}
+		return null;
+	}
 }
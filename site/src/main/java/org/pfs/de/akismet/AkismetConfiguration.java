@@ -69,6 +69,18 @@ public class AkismetConfiguration {
 		return apiKey != null && apiKey.length() > 0 && hamAction != null && hamAction.length() > 0;
 	}
 	
+	/**
+	 * Create a copy of this configuration.
+	 * @return The copy.
+	 */
+	public AkismetConfiguration copy() {
+		AkismetConfiguration copy = new AkismetConfiguration();
+		copy.apiKey = apiKey;
+		copy.hamAction = hamAction;
+		copy.spamAction = spamAction;
+		return copy;
+	}
+	
 	/**
 	 * Read AKismet configuration from a node. Reads the current node and its
 	 * parent nodes, up to the root node.
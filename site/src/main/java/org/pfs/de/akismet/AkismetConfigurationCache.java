@@ -0,0 +1,167 @@
+package org.pfs.de.akismet;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.hippoecm.repository.api.HippoNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for Akismet configurations, keyed by the path of the folder containing
+ * the checked document.
+ * 
+ * <p>The cache is a JCR {@link EventListener}: when a property of the
+ * {@link AkismetConfiguration#NT_AKISMET_CHECK} mixin changes or when a node is
+ * moved or removed, the configurations of the folders at or below the node are
+ * removed. Register it for property and node events on the content (see the
+ * <code>event-listeners.xml</code> HST assembly override).</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class AkismetConfigurationCache implements EventListener {
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(AkismetConfigurationCache.class);
+
+	/**
+	 * Property holding the mixins of a node, which include {@link AkismetConfiguration#NT_AKISMET_CHECK}.
+	 */
+	private static final String PROP_MIXIN_TYPES = "jcr:mixinTypes";
+
+	/**
+	 * Cached configurations by folder path.
+	 */
+	private final ConcurrentMap<String, AkismetConfiguration> configurations = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented on each invalidation. Configurations read while the cache was
+	 * invalidated are not stored.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Get the Akismet configuration for a node. Same as
+	 * {@link AkismetConfiguration#readConfiguration(Session, Node)}, but the
+	 * configuration is read only once per folder.
+	 * @param session The session used to read the configuration.
+	 * @param node The node, usually a document or document handle.
+	 * @return The configuration. The returned instance is not shared and may be modified.
+	 * @throws RepositoryException Error reading data from repository.
+	 */
+	public AkismetConfiguration getConfiguration(Session session, Node node) throws RepositoryException {
+		//Find folder of the document; configuration on documents or handles is not cached
+		Node folder = node;
+		while (folder.isNodeType(HippoNodeType.NT_DOCUMENT) || folder.isNodeType(HippoNodeType.NT_HANDLE)) {
+			if (folder.isNodeType(AkismetConfiguration.NT_AKISMET_CHECK)) {
+				return AkismetConfiguration.readConfiguration(session, node);
+			}
+			folder = folder.getParent();
+		}
+		String key = folder.getPath();
+		AkismetConfiguration configuration = configurations.get(key);
+		if (configuration == null) {
+			long currentGeneration = generation.get();
+			configuration = AkismetConfiguration.readConfiguration(session, folder);
+			if (currentGeneration == generation.get()) {
+				configurations.put(key, configuration);
+			}
+		}
+		return configuration.copy();
+	}
+
+	/**
+	 * Remove all cached configurations.
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		configurations.clear();
+	}
+
+	/**
+	 * Remove the cached configurations of a folder and of all folders below it.
+	 * @param path The path of the folder.
+	 */
+	public void invalidate(String path) {
+		generation.incrementAndGet();
+		String prefix = path + '/';
+		Iterator<String> iterator = configurations.keySet().iterator();
+		while (iterator.hasNext()) {
+			String key = iterator.next();
+			if (key.equals(path) || key.startsWith(prefix)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove the configurations affected by an event: configurations at or
+	 * below a node whose Akismet properties changed, or at or below a moved or
+	 * removed node.
+	 * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+	 */
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+			try {
+				String path = getAffectedPath(event);
+				if (path != null) {
+					if (log.isDebugEnabled()) {
+						log.debug("Akismet configuration changed at {}, removing cached configurations", path);
+					}
+					invalidate(path);
+				}
+			} catch (RepositoryException e) {
+				log.warn("Cannot read event, clearing Akismet configuration cache", e);
+				clear();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the path below which an event may affect Akismet configurations.
+	 * @param event The event.
+	 * @return The path, or <code>null</code> if no configuration is affected.
+	 * @throws RepositoryException
+	 */
+	private String getAffectedPath(Event event) throws RepositoryException {
+		String path = event.getPath();
+		switch (event.getType()) {
+		case Event.PROPERTY_ADDED:
+		case Event.PROPERTY_CHANGED:
+		case Event.PROPERTY_REMOVED:
+			int index = path.lastIndexOf('/');
+			String name = path.substring(index + 1);
+			if (name.equals(AkismetConfiguration.PROP_AKISMET_KEY) 
+					|| name.equals(AkismetConfiguration.PROP_AKISMET_HAM_ACTION)
+					|| name.equals(AkismetConfiguration.PROP_AKISMET_SPAM_ACTION)
+					|| name.equals(PROP_MIXIN_TYPES)) {
+				//Node holding the property
+				return index > 0 ? path.substring(0, index) : "/";
+			}
+			return null;
+		case Event.NODE_MOVED:
+			Object source = event.getInfo().get("srcAbsPath");
+			//Reordering or unknown source: affects the parent folder
+			return source != null ? source.toString() : path.substring(0, Math.max(path.lastIndexOf('/'), 1));
+		case Event.NODE_REMOVED:
+			return path;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package org.pfs.de.akismet;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pfs.de.akismet.rest.AkismetApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for the results of Akismet API key verifications, keyed by API key
+ * and home page.
+ *
+ * <p>Valid and invalid keys are cached, each for its own time. Lookups do not
+ * lock. For each cached result, the key is verified again in the background
+ * shortly before the result expires if the result was used since it was
+ * stored, so that keys in use are only verified during a request on the
+ * first check. Unused results simply expire. Failed verifications (e.g.
+ * network issues, server downtime) are not cached; a result which could not
+ * be refreshed is used until it expires.</p>
+ *
+ * <p>The number of cached results is bounded. When the limit is exceeded,
+ * expired results and then the results expiring first are removed.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class AkismetKeyCache {
+
+	/**
+	 * A cached verification result.
+	 */
+	private static class Verification {
+
+		/**
+		 * Whether the key is valid.
+		 */
+		private final boolean valid;
+
+		/**
+		 * Time in milliseconds after which the result is not used.
+		 */
+		private final long expiresAt;
+
+		/**
+		 * The API used to verify the key again.
+		 */
+		private final AkismetApi api;
+
+		/**
+		 * The API key.
+		 */
+		private final String apiKey;
+
+		/**
+		 * The home page.
+		 */
+		private final String homepage;
+
+		/**
+		 * Set when a lookup used the result.
+		 */
+		private volatile boolean used;
+
+		Verification(boolean valid, long expiresAt, AkismetApi api, String apiKey, String homepage) {
+			this.valid = valid;
+			this.expiresAt = expiresAt;
+			this.api = api;
+			this.apiKey = apiKey;
+			this.homepage = homepage;
+		}
+	}
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(AkismetKeyCache.class);
+
+	/**
+	 * Maximum number of cached results.
+	 */
+	private int maxEntries = 100;
+
+	/**
+	 * Time in milliseconds a valid key is cached.
+	 */
+	private long validTime = 3600000;
+
+	/**
+	 * Time in milliseconds an invalid key is cached.
+	 */
+	private long invalidTime = 300000;
+
+	/**
+	 * Time in milliseconds before the expiration of a used result at which the
+	 * key is verified in the background.
+	 */
+	private long refreshTime = 60000;
+
+	/**
+	 * Cached results by key.
+	 */
+	private final ConcurrentMap<String, Verification> verifications = new ConcurrentHashMap<>();
+
+	/**
+	 * Verifies keys in the background; created on first use and again after
+	 * {@link #stop()}.
+	 */
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Number of lookups answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of lookups which verified the key during the request.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Number of keys verified in the background.
+	 */
+	private final AtomicLong refreshes = new AtomicLong();
+
+	/**
+	 * Stop the background verifications. The cache can still be used; results
+	 * stored afterwards are verified again by a new background thread.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the executor for background verifications, created if necessary
+	 */
+	private synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "akismet-key-refresh");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Check if an API key is valid, using a cached result if available.
+	 * @param api The API used to verify the key.
+	 * @param apiKey The API key.
+	 * @param homepage The home page.
+	 * @return <code>true</code> if the API key is valid, <code>false</code> otherwise.
+	 * @throws AkismetException The key was not cached and could not be verified.
+	 */
+	public boolean checkApiKey(AkismetApi api, String apiKey, String homepage) throws AkismetException {
+		String key = apiKey + '|' + homepage;
+		long now = System.currentTimeMillis();
+		Verification verification = verifications.get(key);
+		if (verification != null && now < verification.expiresAt) {
+			hits.incrementAndGet();
+			if (!verification.used) {
+				verification.used = true;
+			}
+			return verification.valid;
+		}
+		misses.incrementAndGet();
+		boolean valid = api.checkApiKey(apiKey, homepage);
+		store(key, new Verification(valid, now + (valid ? validTime : invalidTime), api, apiKey, homepage));
+		return valid;
+	}
+
+	/**
+	 * Verify a key in the background if its result is still cached and was used
+	 * since it was stored.
+	 * @param key The cache key.
+	 * @param verification The cached result.
+	 */
+	private void refresh(String key, Verification verification) {
+		if (verifications.get(key) != verification || !verification.used) {
+			return;
+		}
+		try {
+			boolean valid = verification.api.checkApiKey(verification.apiKey, verification.homepage);
+			long now = System.currentTimeMillis();
+			store(key, new Verification(valid, now + (valid ? validTime : invalidTime), verification.api,
+					verification.apiKey, verification.homepage));
+			refreshes.incrementAndGet();
+		} catch (AkismetException | RuntimeException e) {
+			log.warn("Akismet API key could not be verified again: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Store a verification result and schedule its background verification.
+	 * @param key The cache key.
+	 * @param verification The verification result.
+	 */
+	private void store(final String key, final Verification verification) {
+		long now = System.currentTimeMillis();
+		verifications.put(key, verification);
+		if (verifications.size() > maxEntries) {
+			evict(now);
+		}
+		try {
+			getExecutor().schedule(new Runnable() {
+				@Override
+				public void run() {
+					refresh(key, verification);
+				}
+			}, Math.max(0, verification.expiresAt - refreshTime - now), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			log.debug("Akismet API key verification not scheduled: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Remove expired results and, if there are still too many results, the
+	 * results expiring first.
+	 * @param now The current time in milliseconds.
+	 */
+	private void evict(long now) {
+		Iterator<Verification> iterator = verifications.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expiresAt <= now) {
+				iterator.remove();
+			}
+		}
+		while (verifications.size() > maxEntries) {
+			Map.Entry<String, Verification> first = null;
+			for (Map.Entry<String, Verification> entry : verifications.entrySet()) {
+				if (first == null || entry.getValue().expiresAt < first.getValue().expiresAt) {
+					first = entry;
+				}
+			}
+			if (first == null) {
+				return;
+			}
+			verifications.remove(first.getKey(), first.getValue());
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		verifications.clear();
+	}
+
+	/**
+	 * @return the maximum number of cached results
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of cached results
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the time in milliseconds a valid key is cached
+	 */
+	public long getValidTime() {
+		return validTime;
+	}
+
+	/**
+	 * @param validTime the time in milliseconds a valid key is cached
+	 */
+	public void setValidTime(long validTime) {
+		this.validTime = validTime;
+	}
+
+	/**
+	 * @return the time in milliseconds an invalid key is cached
+	 */
+	public long getInvalidTime() {
+		return invalidTime;
+	}
+
+	/**
+	 * @param invalidTime the time in milliseconds an invalid key is cached
+	 */
+	public void setInvalidTime(long invalidTime) {
+		this.invalidTime = invalidTime;
+	}
+
+	/**
+	 * @return the time in milliseconds before the expiration of a used result
+	 * at which the key is verified in the background
+	 */
+	public long getRefreshTime() {
+		return refreshTime;
+	}
+
+	/**
+	 * @param refreshTime the time in milliseconds before the expiration of a
+	 * used result at which the key is verified in the background
+	 */
+	public void setRefreshTime(long refreshTime) {
+		this.refreshTime = refreshTime;
+	}
+
+	/**
+	 * @return the number of cached results
+	 */
+	public int getSize() {
+		return verifications.size();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups which verified the key during the request
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of keys verified in the background
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package org.pfs.de.akismet;
+
+/**
+ * The Akismet service was not called or did not answer in time, e.g. because
+ * a circuit breaker is open after repeated failures or because a call exceeded
+ * its latency budget.
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class AkismetUnavailableException extends AkismetException {
+
+	/**
+	 * For serialization.
+	 */
+	private static final long serialVersionUID = 3164785120926459238L;
+
+	/**
+	 * Create a new exception.
+	 * @param message The error message.
+	 */
+	public AkismetUnavailableException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Create a new exception.
+	 * @param message The error message.
+	 * @param cause The exception which caused the error.
+	 */
+	public AkismetUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
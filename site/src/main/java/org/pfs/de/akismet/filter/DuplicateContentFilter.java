@@ -0,0 +1,171 @@
+package org.pfs.de.akismet.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import org.pfs.de.akismet.AkismetCommentData;
+
+/**
+ * Identifies comments as spam if the same text was sent too often within a
+ * sliding time window, regardless of author, address or document.
+ *
+ * <p>Texts are compared by a fingerprint of the letters and digits of the
+ * lower case text, so that changes of case, whitespace or punctuation do not
+ * create a new text. Only the fingerprints are stored. Short texts are not
+ * checked, since the same short answer may be given by many readers.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class DuplicateContentFilter implements SpamFilter {
+
+	/**
+	 * Digits for the hexadecimal fingerprint.
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Maximum number of comments with the same text within the window.
+	 */
+	private int maxDuplicates = 3;
+
+	/**
+	 * Length of the window in milliseconds.
+	 */
+	private long window = 3600000;
+
+	/**
+	 * Minimum number of letters and digits of a checked text.
+	 */
+	private int minLength = 20;
+
+	/**
+	 * Maximum number of tracked texts.
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Comments by fingerprint.
+	 */
+	private volatile SlidingWindowCounter counter = createCounter();
+
+	/**
+	 * @see org.pfs.de.akismet.filter.SpamFilter#filter(org.pfs.de.akismet.AkismetCommentData)
+	 */
+	@Override
+	public Result filter(AkismetCommentData commentData) {
+		String content = commentData.getCommentContent();
+		if (content == null) {
+			return Result.CONTINUE;
+		}
+		StringBuilder normalized = new StringBuilder(content.length());
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				normalized.append(c);
+			}
+		}
+		if (normalized.length() < minLength) {
+			return Result.CONTINUE;
+		}
+		String fingerprint = fingerprint(normalized.toString().toLowerCase(Locale.ROOT));
+		return counter.record(fingerprint, commentData.getIdentifier()) ? Result.SPAM : Result.CONTINUE;
+	}
+
+	/**
+	 * Create the fingerprint of a text.
+	 * @param text The normalized text.
+	 * @return The fingerprint.
+	 */
+	private static String fingerprint(String text) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			//Required for every Java platform
+			throw new IllegalStateException(e);
+		}
+		char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Create the counter for the current configuration.
+	 * @return The counter.
+	 */
+	private SlidingWindowCounter createCounter() {
+		return new SlidingWindowCounter(maxDuplicates, window, maxEntries);
+	}
+
+	/**
+	 * @return the maximum number of comments with the same text within the window
+	 */
+	public int getMaxDuplicates() {
+		return maxDuplicates;
+	}
+
+	/**
+	 * @param maxDuplicates the maximum number of comments with the same text within the window
+	 */
+	public void setMaxDuplicates(int maxDuplicates) {
+		this.maxDuplicates = maxDuplicates;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the length of the window in milliseconds
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window the length of the window in milliseconds
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the minimum number of letters and digits of a checked text
+	 */
+	public int getMinLength() {
+		return minLength;
+	}
+
+	/**
+	 * @param minLength the minimum number of letters and digits of a checked text
+	 */
+	public void setMinLength(int minLength) {
+		this.minLength = minLength;
+	}
+
+	/**
+	 * @return the maximum number of tracked texts
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of tracked texts
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the number of tracked texts
+	 */
+	public int getSize() {
+		return counter.getSize();
+	}
+}
@@ -0,0 +1,105 @@
+package org.pfs.de.akismet.filter;
+
+import org.pfs.de.akismet.AkismetCommentData;
+
+/**
+ * Identifies comments as spam if too many comments were sent from the same
+ * IP address within a sliding time window.
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class IpRateFilter implements SpamFilter {
+
+	/**
+	 * Maximum number of comments from one address within the window.
+	 */
+	private int maxComments = 5;
+
+	/**
+	 * Length of the window in milliseconds.
+	 */
+	private long window = 60000;
+
+	/**
+	 * Maximum number of tracked addresses.
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Comments by address.
+	 */
+	private volatile SlidingWindowCounter counter = createCounter();
+
+	/**
+	 * @see org.pfs.de.akismet.filter.SpamFilter#filter(org.pfs.de.akismet.AkismetCommentData)
+	 */
+	@Override
+	public Result filter(AkismetCommentData commentData) {
+		String userIp = commentData.getUserIp();
+		if (userIp == null) {
+			return Result.CONTINUE;
+		}
+		return counter.record(userIp, commentData.getIdentifier()) ? Result.SPAM : Result.CONTINUE;
+	}
+
+	/**
+	 * Create the counter for the current configuration.
+	 * @return The counter.
+	 */
+	private SlidingWindowCounter createCounter() {
+		return new SlidingWindowCounter(maxComments, window, maxEntries);
+	}
+
+	/**
+	 * @return the maximum number of comments from one address within the window
+	 */
+	public int getMaxComments() {
+		return maxComments;
+	}
+
+	/**
+	 * @param maxComments the maximum number of comments from one address within the window
+	 */
+	public void setMaxComments(int maxComments) {
+		this.maxComments = maxComments;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the length of the window in milliseconds
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window the length of the window in milliseconds
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the maximum number of tracked addresses
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of tracked addresses
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		counter = createCounter();
+	}
+
+	/**
+	 * @return the number of tracked addresses
+	 */
+	public int getSize() {
+		return counter.getSize();
+	}
+}
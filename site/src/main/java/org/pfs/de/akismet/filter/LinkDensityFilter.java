@@ -0,0 +1,101 @@
+package org.pfs.de.akismet.filter;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pfs.de.akismet.AkismetCommentData;
+
+/**
+ * Identifies comments consisting mainly of links as spam.
+ *
+ * <p>A comment is spam if it contains more than the maximum number of links,
+ * or if it contains at least two links and less than the minimum number of
+ * words per link.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class LinkDensityFilter implements SpamFilter {
+
+	/**
+	 * Links in plain text, HTML or BB code.
+	 */
+	private static final Pattern LINK = Pattern.compile("(?i)https?://|www\\.|<a\\s|\\[url");
+
+	/**
+	 * Words of the text.
+	 */
+	private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+
+	/**
+	 * Maximum number of links in a comment.
+	 */
+	private int maxLinks = 5;
+
+	/**
+	 * Minimum number of words per link.
+	 */
+	private int minWordsPerLink = 10;
+
+	/**
+	 * @see org.pfs.de.akismet.filter.SpamFilter#filter(org.pfs.de.akismet.AkismetCommentData)
+	 */
+	@Override
+	public Result filter(AkismetCommentData commentData) {
+		String content = commentData.getCommentContent();
+		if (content == null) {
+			return Result.CONTINUE;
+		}
+		int links = count(LINK, content);
+		if (links > maxLinks) {
+			return Result.SPAM;
+		}
+		if (links >= 2 && count(WORD, content) < links * minWordsPerLink) {
+			return Result.SPAM;
+		}
+		return Result.CONTINUE;
+	}
+
+	/**
+	 * Count the matches of a pattern.
+	 * @param pattern The pattern.
+	 * @param text The text.
+	 * @return The number of matches.
+	 */
+	private static int count(Pattern pattern, String text) {
+		Matcher matcher = pattern.matcher(text);
+		int count = 0;
+		while (matcher.find()) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the maximum number of links in a comment
+	 */
+	public int getMaxLinks() {
+		return maxLinks;
+	}
+
+	/**
+	 * @param maxLinks the maximum number of links in a comment
+	 */
+	public void setMaxLinks(int maxLinks) {
+		this.maxLinks = maxLinks;
+	}
+
+	/**
+	 * @return the minimum number of words per link
+	 */
+	public int getMinWordsPerLink() {
+		return minWordsPerLink;
+	}
+
+	/**
+	 * @param minWordsPerLink the minimum number of words per link
+	 */
+	public void setMinWordsPerLink(int minWordsPerLink) {
+		this.minWordsPerLink = minWordsPerLink;
+	}
+}
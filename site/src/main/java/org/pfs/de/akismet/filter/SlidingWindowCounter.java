@@ -0,0 +1,162 @@
+package org.pfs.de.akismet.filter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts events by key within a sliding time window.
+ *
+ * <p>The times of the last events are kept for each key, up to the limit, so
+ * that the memory used per key is bounded. The number of keys is bounded as
+ * well: when the maximum is exceeded, keys without events in the window are
+ * removed, and if this is not sufficient, arbitrary keys.</p>
+ *
+ * <p>Events may carry an identifier, e.g. of the checked comment. An event
+ * recorded again with the same identifier within the window is not counted
+ * twice, so that a repeated check of a comment gets the same result.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+class SlidingWindowCounter {
+
+	/**
+	 * Times of the last events of a key.
+	 */
+	private static class Window {
+
+		/**
+		 * Event times in milliseconds, used as ring buffer.
+		 */
+		private final long[] times;
+
+		/**
+		 * Event identifiers, in the order of {@link #times}.
+		 */
+		private final String[] ids;
+
+		/**
+		 * Results of the events, in the order of {@link #times}.
+		 */
+		private final boolean[] results;
+
+		/**
+		 * Index of the oldest event time.
+		 */
+		private int next;
+
+		/**
+		 * Time of the last event.
+		 */
+		private volatile long last;
+
+		Window(int limit) {
+			times = new long[limit];
+			ids = new String[limit];
+			results = new boolean[limit];
+		}
+	}
+
+	/**
+	 * Maximum number of events of a key within the window.
+	 */
+	private final int limit;
+
+	/**
+	 * Length of the window in milliseconds.
+	 */
+	private final long windowLength;
+
+	/**
+	 * Maximum number of keys.
+	 */
+	private final int maxKeys;
+
+	/**
+	 * Event times by key.
+	 */
+	private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a new counter.
+	 * @param limit Maximum number of events of a key within the window.
+	 * @param windowLength Length of the window in milliseconds.
+	 * @param maxKeys Maximum number of keys.
+	 */
+	SlidingWindowCounter(int limit, long windowLength, int maxKeys) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		this.limit = limit;
+		this.windowLength = windowLength;
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Record an event.
+	 * @param key The key of the event.
+	 * @param eventId The identifier of the event, may be <code>null</code>.
+	 * @return <code>true</code> if the key had more than the maximum number
+	 * of events within the window, including this event. For an event which
+	 * was already recorded within the window, the result of the first record.
+	 */
+	boolean record(String key, String eventId) {
+		long now = System.currentTimeMillis();
+		Window window = windows.get(key);
+		if (window == null) {
+			Window created = new Window(limit);
+			created.last = now;
+			window = windows.putIfAbsent(key, created);
+			if (window == null) {
+				window = created;
+				if (windows.size() > maxKeys) {
+					evict(now);
+				}
+			}
+		}
+		synchronized (window) {
+			if (eventId != null) {
+				for (int i = 0; i < window.ids.length; i++) {
+					if (eventId.equals(window.ids[i]) && window.times[i] > now - windowLength) {
+						return window.results[i];
+					}
+				}
+			}
+			//The oldest of the last events must be outside of the window
+			boolean exceeded = window.times[window.next] > now - windowLength;
+			window.times[window.next] = now;
+			window.ids[window.next] = eventId;
+			window.results[window.next] = exceeded;
+			window.next = (window.next + 1) % window.times.length;
+			window.last = now;
+			return exceeded;
+		}
+	}
+
+	/**
+	 * Remove keys without events in the window, and arbitrary keys if there
+	 * are still too many.
+	 * @param now The current time in milliseconds.
+	 */
+	private void evict(long now) {
+		Iterator<Window> iterator = windows.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().last <= now - windowLength) {
+				iterator.remove();
+			}
+		}
+		iterator = windows.values().iterator();
+		while (windows.size() > maxKeys && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	int getSize() {
+		return windows.size();
+	}
+}
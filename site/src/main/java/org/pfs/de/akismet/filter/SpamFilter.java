@@ -0,0 +1,42 @@
+package org.pfs.de.akismet.filter;
+
+import org.pfs.de.akismet.AkismetCommentData;
+
+/**
+ * Local check of a comment which runs before the Akismet service is called.
+ *
+ * <p>Filters are shared between requests and must be thread safe. A comment
+ * is filtered again when its check is retried, so filters which count
+ * comments must count each comment (see {@link AkismetCommentData#getIdentifier()})
+ * only once.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public interface SpamFilter {
+
+	/**
+	 * Result of a filter.
+	 */
+	public static enum Result {
+		/**
+		 * The comment is spam, Akismet is not called.
+		 */
+		SPAM,
+		/**
+		 * The comment is ham, Akismet is not called.
+		 */
+		HAM,
+		/**
+		 * The filter cannot decide, the next filter is applied.
+		 */
+		CONTINUE
+	}
+
+	/**
+	 * Check a comment.
+	 * @param commentData Complete data of the comment.
+	 * @return The result of the check.
+	 */
+	public abstract Result filter(AkismetCommentData commentData);
+}
@@ -0,0 +1,103 @@
+package org.pfs.de.akismet.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pfs.de.akismet.AkismetCommentData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies a list of {@link SpamFilter filters} to a comment until a filter
+ * identifies the comment as spam or ham.
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SpamFilterChain implements SpamFilter {
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(SpamFilterChain.class);
+
+	/**
+	 * The filters, in the order they are applied.
+	 */
+	private List<SpamFilter> filters = Collections.emptyList();
+
+	/**
+	 * Number of comments identified as spam.
+	 */
+	private final AtomicLong spam = new AtomicLong();
+
+	/**
+	 * Number of comments identified as ham.
+	 */
+	private final AtomicLong ham = new AtomicLong();
+
+	/**
+	 * Number of comments passed on to Akismet.
+	 */
+	private final AtomicLong passed = new AtomicLong();
+
+	/**
+	 * Apply the filters.
+	 * @see org.pfs.de.akismet.filter.SpamFilter#filter(org.pfs.de.akismet.AkismetCommentData)
+	 */
+	@Override
+	public Result filter(AkismetCommentData commentData) {
+		for (SpamFilter filter : filters) {
+			Result result = filter.filter(commentData);
+			if (result == Result.SPAM) {
+				log.info("Comment {} identified as spam by {}", commentData.getIdentifier(), filter.getClass().getSimpleName());
+				spam.incrementAndGet();
+				return result;
+			}
+			if (result == Result.HAM) {
+				log.debug("Comment {} identified as ham by {}", commentData.getIdentifier(), filter.getClass().getSimpleName());
+				ham.incrementAndGet();
+				return result;
+			}
+		}
+		passed.incrementAndGet();
+		return Result.CONTINUE;
+	}
+
+	/**
+	 * @return the filters, in the order they are applied
+	 */
+	public List<SpamFilter> getFilters() {
+		return filters;
+	}
+
+	/**
+	 * @param filters the filters, in the order they are applied
+	 */
+	public void setFilters(List<SpamFilter> filters) {
+		this.filters = new ArrayList<>(filters);
+	}
+
+	/**
+	 * @return the number of comments identified as spam
+	 */
+	public long getSpam() {
+		return spam.get();
+	}
+
+	/**
+	 * @return the number of comments identified as ham
+	 */
+	public long getHam() {
+		return ham.get();
+	}
+
+	/**
+	 * @return the number of comments passed on to Akismet
+	 */
+	public long getPassed() {
+		return passed.get();
+	}
+}
@@ -0,0 +1,10 @@
+/**
+ * <p>This package contains local spam checks which run before a comment is sent to the
+ * Akismet service.</p>
+ *
+ * <p>Each {@link org.pfs.de.akismet.filter.SpamFilter} identifies a comment as spam or ham,
+ * or leaves the decision to the next filter. The filters are applied in order by the
+ * {@link org.pfs.de.akismet.filter.SpamFilterChain}. Only comments passing all filters are
+ * checked by Akismet.</p>
+ */
+package org.pfs.de.akismet.filter;
@@ -15,9 +15,10 @@ public interface AkismetApi {
 	 * @return The check result. If the request if sent to a report URL (e.g. for
 	 * spam or ham), the result is <em>always</em> {@link ResultType#INVALID}. This can
 	 * be disregarded (the API does not return any information on these calls).
+	 * @throws AkismetException The request could not be sent.
 	 */
 	public abstract AkismetCheckResult sendRequest(AkismetUrls url,
-			AkismetCommentData commentData, String apiKey);
+			AkismetCommentData commentData, String apiKey) throws AkismetException;
 
 	/**
 	 * Check if the API key is valid. Additional information from the server is logged.
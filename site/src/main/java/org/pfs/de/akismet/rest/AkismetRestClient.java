@@ -26,10 +26,19 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriUtils;
 
 /**
+ * REST client for the Akismet API.
+ * 
+ * <p>An instance holds a single {@link RestTemplate} which is reused for all
+ * requests. Instances are thread safe and are intended to be shared. To use
+ * a pooled HTTP transport with keep-alive and timeouts, create the client
+ * with a suitable {@link ClientHttpRequestFactory} (see the
+ * <code>akismet.xml</code> HST assembly override).</p>
+ * 
  * @author Martin Dreier <martin@martindreier.de>
  *
  */
@@ -41,6 +50,38 @@ public class AkismetRestClient implements AkismetApi {
 	private static final Logger log = LoggerFactory
 			.getLogger(AkismetRestClient.class);
 
+	/**
+	 * The template used to send requests to the Akismet server.
+	 */
+	private final RestTemplate template;
+
+	/**
+	 * Create a new client using the default HTTP transport of the JDK.
+	 */
+	public AkismetRestClient() {
+		this(new RestTemplate());
+	}
+
+	/**
+	 * Create a new client using the given HTTP request factory.
+	 * @param requestFactory The factory creating the HTTP requests, e.g. a
+	 * connection pooling factory.
+	 */
+	public AkismetRestClient(ClientHttpRequestFactory requestFactory) {
+		this(new RestTemplate(requestFactory));
+	}
+
+	/**
+	 * Create a new client using the given template.
+	 * @param template The template used to send requests.
+	 */
+	public AkismetRestClient(RestTemplate template) {
+		if (template == null) {
+			throw new IllegalArgumentException("Rest template may not be null");
+		}
+		this.template = template;
+	}
+
 	/**
 	 * Get a map with some request variables already set. The following
 	 * variables are already contained in the map:
@@ -193,7 +234,6 @@ public class AkismetRestClient implements AkismetApi {
 		Map<String, String> variables = getDefaultRequestVariables(apiKey, commentData.getBlogUrl());
 		setVariableValues(variables, commentData);
 
-		RestTemplate template = new RestTemplate();
 		ResponseEntity<String> response = template.postForEntity(url.getUrl(),
 				encodeData(variables), String.class, apiKey);
 		if (response.getStatusCode() == HttpStatus.OK) {
@@ -255,7 +295,6 @@ public class AkismetRestClient implements AkismetApi {
 	 */
 	@Override
 	public boolean checkApiKey(String apiKey, String homepage) throws AkismetException {
-		RestTemplate template = new RestTemplate();
 		ResponseEntity<String> response = template.postForEntity(AkismetUrls.VERIFY_KEY.getUrl(), encodeData(getDefaultRequestVariables(apiKey, homepage)), String.class);
 		if (response.getStatusCode().equals(HttpStatus.OK)) {
 			if (log.isDebugEnabled()) {
@@ -0,0 +1,250 @@
+package org.pfs.de.akismet.rest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pfs.de.akismet.AkismetCheckResult;
+import org.pfs.de.akismet.AkismetCommentData;
+import org.pfs.de.akismet.AkismetException;
+import org.pfs.de.akismet.AkismetUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Akismet API which limits the number of comment checks sent concurrently.
+ * 
+ * <p>Checks are sent by a fixed number of dispatcher threads; further checks
+ * wait in a bounded queue. Each caller blocks until its own result is
+ * available. Akismet does not offer a batch endpoint, so checks are not
+ * collected in batches: every comment is sent as an individual request as
+ * soon as a dispatcher thread is free, which limits the number of requests in
+ * flight during bursts and lets them share pooled connections.</p>
+ * 
+ * <p>API key checks are passed directly to the delegate. If the dispatcher is
+ * not running (see {@link #start()}) or too many checks are waiting, checks are
+ * sent directly by the caller. A caller waits at most the configured timeout
+ * for its result.</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class BatchingAkismetApi implements AkismetApi {
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(BatchingAkismetApi.class);
+
+	/**
+	 * The API which sends the requests.
+	 */
+	private final AkismetApi delegate;
+
+	/**
+	 * Maximum number of requests sent concurrently.
+	 */
+	private int maxInFlight = 10;
+
+	/**
+	 * Maximum number of requests waiting for a dispatcher thread.
+	 */
+	private int maxPending = 1000;
+
+	/**
+	 * Maximum time in milliseconds a caller waits for its result.
+	 */
+	private long timeout = 15000;
+
+	/**
+	 * Executor sending the requests.
+	 */
+	private volatile ThreadPoolExecutor dispatcher;
+
+	/**
+	 * Number of requests sent by the dispatcher.
+	 */
+	private final AtomicLong dispatchedCount = new AtomicLong();
+
+	/**
+	 * Number of requests sent directly by the caller.
+	 */
+	private final AtomicLong directCount = new AtomicLong();
+
+	/**
+	 * Create a new dispatching API.
+	 * @param delegate The API which sends the requests.
+	 */
+	public BatchingAkismetApi(AkismetApi delegate) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Delegate may not be null");
+		}
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Start the dispatcher threads.
+	 */
+	public synchronized void start() {
+		if (dispatcher != null) {
+			return;
+		}
+		dispatcher = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "akismet-dispatch-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop the dispatcher. Requests which are still waiting are sent before the
+	 * dispatcher threads terminate; new requests are sent by their callers.
+	 */
+	public synchronized void stop() {
+		if (dispatcher == null) {
+			return;
+		}
+		dispatcher.shutdown();
+		dispatcher = null;
+	}
+
+	/**
+	 * Send the request from a dispatcher thread and wait for the result.
+	 * @see org.pfs.de.akismet.rest.AkismetApi#sendRequest(org.pfs.de.akismet.rest.AkismetUrls, org.pfs.de.akismet.AkismetCommentData, java.lang.String)
+	 */
+	@Override
+	public AkismetCheckResult sendRequest(final AkismetUrls url, final AkismetCommentData commentData, final String apiKey) throws AkismetException {
+		ThreadPoolExecutor currentDispatcher = dispatcher;
+		if (currentDispatcher == null) {
+			directCount.incrementAndGet();
+			return delegate.sendRequest(url, commentData, apiKey);
+		}
+		FutureTask<AkismetCheckResult> task = new FutureTask<>(new Callable<AkismetCheckResult>() {
+			@Override
+			public AkismetCheckResult call() throws AkismetException {
+				return delegate.sendRequest(url, commentData, apiKey);
+			}
+		});
+		try {
+			currentDispatcher.execute(task);
+		} catch (RejectedExecutionException e) {
+			//Too many pending requests, or stopped after the check above
+			log.debug("Akismet request for comment {} not queued, sending it directly", commentData.getIdentifier());
+			directCount.incrementAndGet();
+			return delegate.sendRequest(url, commentData, apiKey);
+		}
+		dispatchedCount.incrementAndGet();
+		try {
+			return task.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			task.cancel(true);
+			throw new AkismetUnavailableException("No Akismet result for comment " + commentData.getIdentifier() + " within " + timeout + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			task.cancel(false);
+			throw new AkismetUnavailableException("Interrupted while waiting for Akismet result of comment " + commentData.getIdentifier());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof AkismetException) {
+				throw (AkismetException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * API key checks are passed directly to the delegate.
+	 * @see org.pfs.de.akismet.rest.AkismetApi#checkApiKey(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean checkApiKey(String apiKey, String homepage) throws AkismetException {
+		return delegate.checkApiKey(apiKey, homepage);
+	}
+
+	/**
+	 * @return the maximum number of concurrent requests
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @param maxInFlight the maximum number of concurrent requests to set. Takes effect on {@link #start()}.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @return the maximum number of requests waiting for a dispatcher thread
+	 */
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * @param maxPending the maximum number of requests waiting for a dispatcher thread. Takes effect on {@link #start()}.
+	 */
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds a caller waits for its result
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout the maximum time in milliseconds a caller waits for its result
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the number of requests sent by the dispatcher
+	 */
+	public long getDispatchedRequests() {
+		return dispatchedCount.get();
+	}
+
+	/**
+	 * @return the number of requests sent directly by the caller
+	 */
+	public long getDirectRequests() {
+		return directCount.get();
+	}
+
+	/**
+	 * @return the number of requests currently sent by the dispatcher
+	 */
+	public int getActiveRequests() {
+		ThreadPoolExecutor currentDispatcher = dispatcher;
+		return currentDispatcher == null ? 0 : currentDispatcher.getActiveCount();
+	}
+
+	/**
+	 * @return the number of requests waiting for a dispatcher thread
+	 */
+	public int getPendingRequests() {
+		ThreadPoolExecutor currentDispatcher = dispatcher;
+		return currentDispatcher == null ? 0 : currentDispatcher.getQueue().size();
+	}
+}
@@ -0,0 +1,406 @@
+package org.pfs.de.akismet.rest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.pfs.de.akismet.AkismetCheckResult;
+import org.pfs.de.akismet.AkismetCommentData;
+import org.pfs.de.akismet.AkismetException;
+import org.pfs.de.akismet.AkismetUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Akismet API which stops calling the Akismet service after repeated failures.
+ *
+ * <p>Each call must complete within the latency budget, otherwise the caller
+ * gets an {@link AkismetUnavailableException} and the call counts as failed.
+ * Calls which throw an exception count as failed as well. After the configured
+ * number of consecutive failures the breaker opens: calls fail immediately with
+ * an {@link AkismetUnavailableException}, so that the caller can apply its
+ * fallback without waiting for the service. After the open time a single probe
+ * call is let through (half open); if it succeeds, the breaker closes again,
+ * otherwise it stays open for another open time.</p>
+ *
+ * <p>Calls with a latency budget are executed by a bounded number of threads.
+ * If all threads are busy (e.g. with calls which exceeded the budget and are
+ * still waiting for the service), further calls fail immediately with an
+ * {@link AkismetUnavailableException} without counting as failed.</p>
+ *
+ * <p>Exceptions of the delegate are reported as {@link AkismetException}.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class CircuitBreakerAkismetApi implements AkismetApi {
+
+	/**
+	 * States of the breaker.
+	 */
+	public static enum State {
+		/**
+		 * Calls are passed to the delegate.
+		 */
+		CLOSED,
+		/**
+		 * Calls fail immediately.
+		 */
+		OPEN,
+		/**
+		 * A probe call is in progress, other calls fail immediately.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreakerAkismetApi.class);
+
+	/**
+	 * The API which sends the requests.
+	 */
+	private final AkismetApi delegate;
+
+	/**
+	 * Number of consecutive failures which open the breaker.
+	 */
+	private int failureThreshold = 5;
+
+	/**
+	 * Time in milliseconds the breaker stays open before a probe call is made.
+	 */
+	private long openTime = 30000;
+
+	/**
+	 * Maximum duration of a call in milliseconds, <code>0</code> for no limit.
+	 */
+	private long latencyBudget = 3000;
+
+	/**
+	 * Executes calls with a latency budget. Calls are rejected if all threads are busy.
+	 */
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(10, 10, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "akismet-call-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Current state.
+	 */
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+	/**
+	 * Number of consecutive failed calls.
+	 */
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	/**
+	 * Time the breaker was opened, in milliseconds.
+	 */
+	private volatile long openedAt;
+
+	/**
+	 * Number of times the breaker was opened.
+	 */
+	private final AtomicLong tripCount = new AtomicLong();
+
+	/**
+	 * Number of calls rejected while the breaker was open.
+	 */
+	private final AtomicLong rejectedCalls = new AtomicLong();
+
+	/**
+	 * Number of calls which exceeded the latency budget.
+	 */
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Create a new circuit breaker.
+	 * @param delegate The API which sends the requests.
+	 */
+	public CircuitBreakerAkismetApi(AkismetApi delegate) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Delegate may not be null");
+		}
+		this.delegate = delegate;
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Stop the threads executing calls.
+	 */
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @see org.pfs.de.akismet.rest.AkismetApi#sendRequest(org.pfs.de.akismet.rest.AkismetUrls, org.pfs.de.akismet.AkismetCommentData, java.lang.String)
+	 */
+	@Override
+	public AkismetCheckResult sendRequest(final AkismetUrls url, final AkismetCommentData commentData, final String apiKey) throws AkismetException {
+		return call(new Callable<AkismetCheckResult>() {
+			@Override
+			public AkismetCheckResult call() throws AkismetException {
+				return delegate.sendRequest(url, commentData, apiKey);
+			}
+		});
+	}
+
+	/**
+	 * @see org.pfs.de.akismet.rest.AkismetApi#checkApiKey(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean checkApiKey(final String apiKey, final String homepage) throws AkismetException {
+		return call(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws AkismetException {
+				return delegate.checkApiKey(apiKey, homepage);
+			}
+		});
+	}
+
+	/**
+	 * Call the delegate if the breaker allows it and record the outcome.
+	 * @param callable The call.
+	 * @return The result of the call.
+	 * @throws AkismetException The breaker is open, the call exceeded the latency budget or failed.
+	 */
+	private <T> T call(Callable<T> callable) throws AkismetException {
+		boolean probe = acquire();
+		T result;
+		try {
+			result = invoke(callable);
+		} catch (RejectedExecutionException e) {
+			//The service is not known to fail, a probe is tried again with the next call
+			if (probe) {
+				state.compareAndSet(State.HALF_OPEN, State.OPEN);
+			}
+			rejectedCalls.incrementAndGet();
+			throw new AkismetUnavailableException("Too many concurrent Akismet calls", e);
+		} catch (AkismetException e) {
+			onFailure(probe);
+			throw e;
+		}
+		onSuccess(probe);
+		return result;
+	}
+
+	/**
+	 * Check if a call may be made.
+	 * @return <code>true</code> if the call is the probe of a half open breaker.
+	 * @throws AkismetUnavailableException The breaker is open.
+	 */
+	private boolean acquire() throws AkismetUnavailableException {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			return false;
+		}
+		if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openTime
+				&& state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+			log.info("Akismet circuit breaker is half open, sending probe");
+			return true;
+		}
+		rejectedCalls.incrementAndGet();
+		throw new AkismetUnavailableException("Akismet circuit breaker is open");
+	}
+
+	/**
+	 * Call the delegate within the latency budget.
+	 * @param callable The call.
+	 * @return The result of the call.
+	 * @throws AkismetException The call exceeded the latency budget or failed.
+	 * @throws RejectedExecutionException All threads executing calls are busy.
+	 */
+	private <T> T invoke(Callable<T> callable) throws AkismetException {
+		if (latencyBudget <= 0) {
+			try {
+				return callable.call();
+			} catch (AkismetException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new AkismetException("Akismet call failed", e);
+			}
+		}
+		Future<T> future = executor.submit(callable);
+		try {
+			return future.get(latencyBudget, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			timeouts.incrementAndGet();
+			throw new AkismetUnavailableException("Akismet call exceeded the latency budget of " + latencyBudget + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
+			throw new AkismetUnavailableException("Interrupted while waiting for Akismet", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof AkismetException) {
+				throw (AkismetException) e.getCause();
+			}
+			throw new AkismetException("Akismet call failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Record a successful call.
+	 * @param probe Whether the call was the probe of a half open breaker.
+	 */
+	private void onSuccess(boolean probe) {
+		if (probe) {
+			consecutiveFailures.set(0);
+			state.set(State.CLOSED);
+			log.info("Akismet circuit breaker closed");
+		} else if (state.get() == State.CLOSED) {
+			consecutiveFailures.set(0);
+		}
+	}
+
+	/**
+	 * Record a failed call and open the breaker if required.
+	 * @param probe Whether the call was the probe of a half open breaker.
+	 */
+	private void onFailure(boolean probe) {
+		if (probe) {
+			open(State.HALF_OPEN);
+		} else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+			open(State.CLOSED);
+		}
+	}
+
+	/**
+	 * Open the breaker.
+	 * @param expected The state from which the breaker is opened.
+	 */
+	private void open(State expected) {
+		long now = System.currentTimeMillis();
+		if (state.compareAndSet(expected, State.OPEN)) {
+			openedAt = now;
+			tripCount.incrementAndGet();
+			log.warn("Akismet circuit breaker opened after {} consecutive failures", consecutiveFailures.get());
+		}
+	}
+
+	/**
+	 * @return the number of consecutive failures which open the breaker
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * @param failureThreshold the number of consecutive failures which open the breaker
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * @return the time in milliseconds the breaker stays open before a probe call
+	 */
+	public long getOpenTime() {
+		return openTime;
+	}
+
+	/**
+	 * @param openTime the time in milliseconds the breaker stays open before a probe call
+	 */
+	public void setOpenTime(long openTime) {
+		this.openTime = openTime;
+	}
+
+	/**
+	 * @return the maximum duration of a call in milliseconds, <code>0</code> for no limit
+	 */
+	public long getLatencyBudget() {
+		return latencyBudget;
+	}
+
+	/**
+	 * @param latencyBudget the maximum duration of a call in milliseconds, <code>0</code> for no limit
+	 */
+	public void setLatencyBudget(long latencyBudget) {
+		this.latencyBudget = latencyBudget;
+	}
+
+	/**
+	 * @return the maximum number of concurrent calls with a latency budget
+	 */
+	public int getMaxConcurrentCalls() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @param maxConcurrentCalls the maximum number of concurrent calls with a latency budget
+	 */
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		if (maxConcurrentCalls < 1) {
+			throw new IllegalArgumentException("Maximum number of concurrent calls must be positive");
+		}
+		//The core size may not exceed the maximum size
+		if (maxConcurrentCalls > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(maxConcurrentCalls);
+			executor.setCorePoolSize(maxConcurrentCalls);
+		} else {
+			executor.setCorePoolSize(maxConcurrentCalls);
+			executor.setMaximumPoolSize(maxConcurrentCalls);
+		}
+	}
+
+	/**
+	 * @return the number of calls with a latency budget in progress
+	 */
+	public int getActiveCalls() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return the current state of the breaker
+	 */
+	public String getState() {
+		return state.get().name();
+	}
+
+	/**
+	 * @return the number of consecutive failed calls
+	 */
+	public int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+
+	/**
+	 * @return the number of times the breaker was opened
+	 */
+	public long getTripCount() {
+		return tripCount.get();
+	}
+
+	/**
+	 * @return the number of calls rejected while the breaker was open or all threads were busy
+	 */
+	public long getRejectedCalls() {
+		return rejectedCalls.get();
+	}
+
+	/**
+	 * @return the number of calls which exceeded the latency budget
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+}
@@ -1,9 +1,14 @@
 package org.pfs.de.beans;
 
 import javax.jcr.RepositoryException;
+
+import org.hippoecm.hst.configuration.hosting.Mount;
+import org.hippoecm.hst.container.RequestContextProvider;
 import org.hippoecm.hst.content.beans.ContentNodeBindingException;
 import org.hippoecm.hst.content.beans.Node;
 import org.hippoecm.hst.content.beans.standard.HippoDocument;
+import org.hippoecm.hst.core.request.HstRequestContext;
+import org.hippoecm.hst.site.HstServices;
 import org.pfs.de.services.model.BaseDocumentRepresentation;
 
 /**
@@ -45,6 +50,35 @@ public abstract class BaseDocument extends HippoDocument {
         }
     }
 
+    /**
+     * Create the URL of a document for the current request. In the live site,
+     * URLs are taken from the {@link LinkCache}, if available.
+     * @param document The document.
+     * @param fullyQualified Whether to create a fully qualified URL.
+     * @return The URL of the document.
+     */
+    protected String createLink(HippoDocument document, boolean fullyQualified) {
+        final HstRequestContext hstRequestContext = RequestContextProvider.get();
+        LinkCache cache = null;
+        if (HstServices.isAvailable() && document != null && !hstRequestContext.isPreview()) {
+            cache = HstServices.getComponentManager().getComponent(LinkCache.class.getName());
+        }
+        if (cache == null) {
+            return hstRequestContext.getHstLinkCreator().create(document, hstRequestContext).toUrlForm(hstRequestContext, fullyQualified);
+        }
+        Mount mount = hstRequestContext.getResolvedMount().getMount();
+        String origin = fullyQualified ? LinkCache.getOrigin(hstRequestContext.getServletRequest()) : null;
+        String key = LinkCache.createKey(document.getCanonicalHandleUUID(), mount.getIdentifier(), origin);
+        String url = cache.get(key);
+        if (url == null) {
+            long generation = cache.getGeneration();
+            url = hstRequestContext.getHstLinkCreator().create(document, hstRequestContext).toUrlForm(hstRequestContext, fullyQualified);
+            String variantPath = document.getCanonicalPath();
+            cache.put(key, variantPath.substring(0, variantPath.lastIndexOf('/')), url, generation);
+        }
+        return url;
+    }
+
     /**
      * Update the document content from a representation.
      * @param representation The representation containing the new data.
@@ -5,12 +5,10 @@ import java.util.GregorianCalendar;
 
 import javax.jcr.RepositoryException;
 
-import org.hippoecm.hst.container.RequestContextProvider;
 import org.hippoecm.hst.content.beans.Node;
 import org.hippoecm.hst.content.beans.standard.HippoGalleryImageSetBean;
 import org.hippoecm.hst.content.beans.standard.HippoHtml;
-import org.hippoecm.hst.core.request.HstRequestContext;
-import org.jsoup.Jsoup;
+import org.hippoecm.hst.site.HstServices;
 import org.onehippo.forge.feed.api.FeedType;
 import org.onehippo.forge.feed.api.annot.SyndicationElement;
 import org.pfs.de.services.model.BaseDocumentRepresentation;
@@ -26,6 +24,11 @@ public class BlogDocument extends BaseDocument{
      * characters of plaintext.
      */
     private int SUMMARY_LENGTH = 350;
+    
+    /**
+     * Summary of the blog content, created on first access.
+     */
+    private String summary;
 
 	@SyndicationElement(type = FeedType.RSS, name = "title")
     public String getTitle() {
@@ -60,25 +63,29 @@ public class BlogDocument extends BaseDocument{
 
     /**
      * Get the summary of the blog content. Content will be truncated
-     * at {@link AbstractMethodError#SUMMARY_LENGTH}.
+     * at {@link AbstractMethodError#SUMMARY_LENGTH}. Summaries are taken
+     * from the {@link SummaryCache}, if available.
      * @return Summarized blog content.
      */
     @SyndicationElement(type = FeedType.RSS, name = "description")
     public Description getSummary() {
-        String parsedContent = Jsoup.parse(getHippoHtml("website:body").getContent()).text();
-        String summary;
-        
-        if (parsedContent.length() > SUMMARY_LENGTH) {
-            int indexOfLastSpace = parsedContent.lastIndexOf(' ', SUMMARY_LENGTH);
-            if (indexOfLastSpace < 10) {
-                //Have at least 10 characters in summary
-                indexOfLastSpace = 10;
+        if (summary == null) {
+            SummaryCache cache = null;
+            if (HstServices.isAvailable()) {
+                cache = HstServices.getComponentManager().getComponent(SummaryCache.class.getName());
+            }
+            if (cache != null) {
+                //Summary is created once per revision of the document
+                GregorianCalendar modified = getProperty("hippostdpubwf:lastModificationDate");
+                String key = getCanonicalUUID() + '|' + (modified == null ? "" : modified.getTimeInMillis());
+                summary = cache.get(key);
+                if (summary == null) {
+                    summary = createSummary();
+                    cache.put(key, summary);
+                }
+            } else {
+                summary = createSummary();
             }
-            
-            summary = parsedContent.substring(0, indexOfLastSpace) + "...";
-            
-        } else {
-            summary = parsedContent;
         }
         
         Description ret = new Description();
@@ -88,6 +95,14 @@ public class BlogDocument extends BaseDocument{
         return ret;
     }
     
+    /**
+     * Create the summary of the blog content.
+     * @return Plain text of the content, truncated at {@link #SUMMARY_LENGTH}.
+     */
+    private String createSummary() {
+        return SummaryExtractor.extract(getHippoHtml("website:body").getContent(), SUMMARY_LENGTH);
+    }
+    
     /**
      * Get the date of the blog entry. This is the publication date of
      * the entry.
@@ -105,8 +120,7 @@ public class BlogDocument extends BaseDocument{
      */
 	@SyndicationElement(type = FeedType.RSS, name = "link")
     public String getSyndicationLink() {
-    	final HstRequestContext hstRequestContext = RequestContextProvider.get();
-        return hstRequestContext.getHstLinkCreator().create(this, hstRequestContext).toUrlForm(hstRequestContext, true);
+        return createLink(this, true);
     }
 
 	/**
@@ -6,13 +6,11 @@ import java.util.List;
 
 import javax.jcr.RepositoryException;
 
-import org.hippoecm.hst.container.RequestContextProvider;
 import org.hippoecm.hst.content.beans.ContentNodeBindingException;
 import org.hippoecm.hst.content.beans.Node;
 import org.hippoecm.hst.content.beans.standard.HippoBean;
 import org.hippoecm.hst.content.beans.standard.HippoDocument;
 import org.hippoecm.hst.content.beans.standard.HippoMirror;
-import org.hippoecm.hst.core.request.HstRequestContext;
 import org.onehippo.forge.feed.api.FeedType;
 import org.onehippo.forge.feed.api.annot.SyndicationElement;
 import org.pfs.de.services.model.BaseDocumentRepresentation;
@@ -32,6 +30,16 @@ public class CommentDocument extends BaseDocument{
     protected static final String FIELD_TEXT = "website:commenttext";
     protected static final String FIELD_REFERENCE = "website:reference";
 
+    /**
+     * The referenced document, once resolved.
+     */
+    private HippoDocument referencedDocument;
+
+    /**
+     * Whether {@link #referencedDocument} has been resolved.
+     */
+    private boolean referencedDocumentResolved;
+
     /**
      * Get the author. Name of the author as given in the comment form.
      * @return The author name.
@@ -64,8 +72,7 @@ public class CommentDocument extends BaseDocument{
      */
     @SyndicationElement(type = FeedType.RSS, name = "link")
     public String getSyndicationLink() {
-    	final HstRequestContext hstRequestContext = RequestContextProvider.get();
-        return hstRequestContext.getHstLinkCreator().create(this.getReferencedDocument(), hstRequestContext).toUrlForm(hstRequestContext, true);
+        return createLink(this.getReferencedDocument(), true);
     }
     
     /**
@@ -87,10 +94,23 @@ public class CommentDocument extends BaseDocument{
     }
     
     /**
-     * Get the referenced document.
+     * Get the referenced document. The reference is resolved on first access
+     * and kept for the lifetime of the bean.
      * @return The document that the comment was written in reference to.
      */
     public HippoDocument getReferencedDocument() {
+    	if (!referencedDocumentResolved) {
+    		referencedDocument = resolveReferencedDocument();
+    		referencedDocumentResolved = true;
+    	}
+    	return referencedDocument;
+    }
+
+    /**
+     * Dereference the mirror node of the comment.
+     * @return The referenced document, or <code>null</code>.
+     */
+    private HippoDocument resolveReferencedDocument() {
     	HippoDocument ret = null;
     	List<Object> docs = getChildBeansByName(FIELD_REFERENCE);
     	HippoMirror mirror = null;
@@ -166,5 +186,6 @@ public class CommentDocument extends BaseDocument{
      */
     public void setReferencedDocument(HippoDocument document) throws RepositoryException, ContentNodeBindingException {
         addMirrorNode(this.getNode(), FIELD_REFERENCE, document.getCanonicalHandleUUID());
+        referencedDocumentResolved = false;
     }
 }
@@ -0,0 +1,273 @@
+package org.pfs.de.beans;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.hippoecm.hst.util.HstRequestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for the URLs of documents.
+ *
+ * <p>Links are keyed by the identifier of the document handle, the mount for
+ * which the link was created and, for fully qualified URLs, the scheme and
+ * host of the request (see {@link #getOrigin(HttpServletRequest)}), so that
+ * the syndication links of the feeds are created once per document instead of
+ * once per call. The path of the handle is kept with each link. The cache is a
+ * JCR {@link EventListener}: when a node is moved (which includes renaming) or
+ * removed, the links of all handles at or below its old path are removed.</p>
+ *
+ * <p>The cache also holds the fully qualified home page URL of each mount,
+ * scheme and host.
+ * All links are removed when the HST configuration below <code>/hst:hst</code>
+ * changes, since the configuration determines the URLs.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class LinkCache implements EventListener {
+
+    /**
+     * A cached link.
+     */
+    private static class Link {
+
+        /**
+         * Path of the document handle, <code>null</code> for home page URLs.
+         */
+        private final String handlePath;
+
+        /**
+         * The URL.
+         */
+        private final String url;
+
+        Link(String handlePath, String url) {
+            this.handlePath = handlePath;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Logging instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LinkCache.class);
+
+    /**
+     * Root path of the HST configuration.
+     */
+    private static final String HST_CONFIGURATION_PATH = "/hst:hst";
+
+    /**
+     * Maximum number of links.
+     */
+    private int maxEntries = 5000;
+
+    /**
+     * Links by key, least recently used first.
+     */
+    private final Map<String, Link> links = new LinkedHashMap<String, Link>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Link> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * Incremented on each invalidation. Links created while the cache was
+     * invalidated are not stored.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for links not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the scheme and host of a request, which determine the fully
+     * qualified URLs created for the request.
+     * @param request The request.
+     * @return The scheme and host, as seen by the client if the request was proxied.
+     */
+    public static String getOrigin(HttpServletRequest request) {
+        return request.getScheme() + "://" + HstRequestUtils.getFarthestRequestHost(request);
+    }
+
+    /**
+     * Create the key of a link.
+     * @param handleId The identifier of the document handle.
+     * @param mountId The identifier of the mount.
+     * @param origin The scheme and host of the request for fully qualified URLs,
+     * <code>null</code> for URLs without scheme and host.
+     * @return The key.
+     */
+    public static String createKey(String handleId, String mountId, String origin) {
+        return handleId + '|' + mountId + '|' + (origin == null ? "" : origin);
+    }
+
+    /**
+     * Create the key of the home page URL of a mount.
+     * @param mountId The identifier of the mount.
+     * @param origin The scheme and host of the request, see {@link #getOrigin(HttpServletRequest)}.
+     * @return The key.
+     */
+    public static String createHomePageKey(String mountId, String origin) {
+        return "homepage|" + mountId + '|' + origin;
+    }
+
+    /**
+     * Get a link.
+     * @param key The key of the link.
+     * @return The URL, or <code>null</code> if it is not cached.
+     */
+    public String get(String key) {
+        Link link;
+        synchronized (links) {
+            link = links.get(key);
+        }
+        if (link == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return link.url;
+    }
+
+    /**
+     * Get the current generation, to be passed to {@link #put(String, String, String, long)}
+     * after the link has been created.
+     * @return The generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Store a link, unless the cache has been invalidated since it was created.
+     * @param key The key of the link.
+     * @param handlePath The path of the document handle, or <code>null</code>
+     * if the link does not depend on content.
+     * @param url The URL.
+     * @param createdGeneration The generation before the link was created.
+     */
+    public void put(String key, String handlePath, String url, long createdGeneration) {
+        synchronized (links) {
+            if (createdGeneration == generation.get()) {
+                links.put(key, new Link(handlePath, url));
+            }
+        }
+    }
+
+    /**
+     * Remove the links of all handles at or below a path.
+     * @param path The path.
+     */
+    public void invalidate(String path) {
+        synchronized (links) {
+            generation.incrementAndGet();
+            Iterator<Link> iterator = links.values().iterator();
+            while (iterator.hasNext()) {
+                String handlePath = iterator.next().handlePath;
+                if (handlePath != null && (handlePath.equals(path) || handlePath.startsWith(path + '/'))) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all links.
+     */
+    public void clear() {
+        synchronized (links) {
+            generation.incrementAndGet();
+            links.clear();
+        }
+    }
+
+    /**
+     * Remove the links of moved or removed handles, or all links if the HST
+     * configuration changed.
+     * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+     */
+    @Override
+    public void onEvent(EventIterator events) {
+        try {
+            while (events.hasNext()) {
+                Event event = events.nextEvent();
+                if (event.getPath().startsWith(HST_CONFIGURATION_PATH)) {
+                    clear();
+                    return;
+                }
+                if (event.getType() == Event.NODE_REMOVED) {
+                    invalidate(event.getPath());
+                } else if (event.getType() == Event.NODE_MOVED) {
+                    Object source = event.getInfo().get("srcAbsPath");
+                    if (source == null) {
+                        //Reordering or unknown source
+                        clear();
+                        return;
+                    }
+                    invalidate(source.toString());
+                }
+            }
+        } catch (RepositoryException e) {
+            log.warn("Cannot read event, clearing links", e);
+            clear();
+        }
+    }
+
+    /**
+     * @param maxEntries the maximum number of links
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the maximum number of links
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of cached links
+     */
+    public int getSize() {
+        synchronized (links) {
+            return links.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups for links not in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
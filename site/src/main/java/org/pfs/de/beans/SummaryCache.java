@@ -0,0 +1,113 @@
+package org.pfs.de.beans;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the plain text summaries of documents.
+ *
+ * <p>Summaries are keyed by the identifier of the document variant and its
+ * modification date, so that the HTML of a document is parsed once per
+ * revision. Outdated summaries are never found again and are evicted as least
+ * recently used. Only the summary text is kept, so that an entry takes less
+ * than a kilobyte.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SummaryCache {
+
+    /**
+     * Maximum number of summaries.
+     */
+    private int maxEntries = 1000;
+
+    /**
+     * Summaries by key, least recently used first.
+     */
+    private final Map<String, String> summaries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for summaries not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get a summary.
+     * @param key The key of the document revision.
+     * @return The summary, or <code>null</code> if it is not cached.
+     */
+    public String get(String key) {
+        String summary;
+        synchronized (summaries) {
+            summary = summaries.get(key);
+        }
+        if (summary == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return summary;
+    }
+
+    /**
+     * Store a summary.
+     * @param key The key of the document revision.
+     * @param summary The summary.
+     */
+    public void put(String key, String summary) {
+        synchronized (summaries) {
+            summaries.put(key, summary);
+        }
+    }
+
+    /**
+     * @param maxEntries the maximum number of summaries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the maximum number of summaries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of cached summaries
+     */
+    public int getSize() {
+        synchronized (summaries) {
+            return summaries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups for summaries not in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
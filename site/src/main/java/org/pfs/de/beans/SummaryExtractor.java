@@ -0,0 +1,567 @@
+package org.pfs.de.beans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.jsoup.nodes.Entities;
+
+/**
+ * Extracts the plain text summary of HTML content.
+ *
+ * <p>The HTML is tokenized in a single pass without building a document tree,
+ * and tokenizing stops as soon as the text is long enough for the summary. The
+ * text is the same as the text of the document parsed by Jsoup
+ * (<code>Jsoup.parse(html).text()</code>): entities are decoded with the Jsoup
+ * entity table, whitespace is normalized except in preformatted elements, block
+ * elements and line breaks are separated by a space, and the contents of
+ * scripts and styles are skipped. Constructs which Jsoup reorders when building
+ * the tree (e.g. text directly inside tables) are kept in source order.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SummaryExtractor {
+
+    /**
+     * Elements which are separated from the preceding text by a space (the
+     * block elements of Jsoup).
+     */
+    private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList(
+            "html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title", "frame",
+            "noframes", "section", "nav", "aside", "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6",
+            "ul", "ol", "pre", "div", "blockquote", "hr", "address", "figure", "figcaption", "form", "fieldset", "ins",
+            "del", "s", "dl", "dt", "dd", "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr", "th",
+            "td", "video", "audio", "canvas", "details", "menu", "plaintext"));
+
+    /**
+     * Elements which may appear before the document body.
+     */
+    private static final Set<String> HEAD_TAGS = new HashSet<String>(Arrays.asList(
+            "html", "head", "title", "meta", "link", "style", "script", "base", "basefont", "bgsound", "command",
+            "noscript", "noframes"));
+
+    /**
+     * Elements without content.
+     */
+    private static final Set<String> VOID_TAGS = new HashSet<String>(Arrays.asList(
+            "area", "base", "basefont", "bgsound", "br", "col", "command", "embed", "frame", "hr", "img", "input",
+            "keygen", "link", "meta", "param", "source", "track", "wbr"));
+
+    /**
+     * Elements in which (and in whose children) whitespace is preserved.
+     */
+    private static final Set<String> PRESERVE_WHITESPACE_TAGS = new HashSet<String>(Arrays.asList(
+            "pre", "plaintext", "title", "textarea"));
+
+    /**
+     * Elements whose content is data, not text.
+     */
+    private static final Set<String> DATA_TAGS = new HashSet<String>(Arrays.asList("script", "style"));
+
+    /**
+     * Elements whose content is text without markup or entities.
+     */
+    private static final Set<String> RAW_TEXT_TAGS = new HashSet<String>(Arrays.asList(
+            "xmp", "iframe", "noembed", "noframes"));
+
+    /**
+     * Elements whose content is text with entities, but without markup.
+     */
+    private static final Set<String> RCDATA_TAGS = new HashSet<String>(Arrays.asList("title", "textarea"));
+
+    /**
+     * The HTML content.
+     */
+    private final String html;
+
+    /**
+     * Maximum length of the summary.
+     */
+    private final int length;
+
+    /**
+     * Current position in the HTML content.
+     */
+    private int pos;
+
+    /**
+     * Extracted text.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Index of the first character of the extracted text which is not removed
+     * by trimming, <code>-1</code> if there is none yet.
+     */
+    private int first = -1;
+
+    /**
+     * Flag if the text is long enough for the summary.
+     */
+    private boolean full;
+
+    /**
+     * Open elements, innermost last.
+     */
+    private final List<String> openElements = new ArrayList<String>();
+
+    /**
+     * Flag if whitespace is preserved for text in the current element.
+     */
+    private boolean preserveWhitespace;
+
+    /**
+     * Flag if the document body has been started.
+     */
+    private boolean bodyStarted;
+
+    /**
+     * Create an extractor.
+     * @param html The HTML content.
+     * @param length Maximum length of the summary.
+     */
+    private SummaryExtractor(String html, int length) {
+        this.html = html;
+        this.length = length;
+    }
+
+    /**
+     * Extract the summary of HTML content. The plain text is truncated at the
+     * last space before <code>length</code> characters (keeping at least 10
+     * characters), followed by <code>...</code>.
+     * @param html The HTML content.
+     * @param length Maximum length of the summary, must not be less than 10.
+     * @return The summary.
+     */
+    public static String extract(String html, int length) {
+        SummaryExtractor extractor = new SummaryExtractor(html, length);
+        extractor.run();
+        return extractor.getSummary();
+    }
+
+    /**
+     * Tokenize the HTML until the end or until the text is long enough.
+     */
+    private void run() {
+        int end = html.length();
+        while (pos < end && !full) {
+            char c = html.charAt(pos);
+            if (c == '<') {
+                readMarkup();
+            } else if (c == '&') {
+                pos++;
+                readReference();
+            } else {
+                appendText(c);
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * @return the summary of the extracted text
+     */
+    private String getSummary() {
+        String plain = full ? text.substring(first) : text.toString().trim();
+        if (plain.length() > length) {
+            int indexOfLastSpace = plain.lastIndexOf(' ', length);
+            if (indexOfLastSpace < 10) {
+                //Have at least 10 characters in summary
+                indexOfLastSpace = 10;
+            }
+            return plain.substring(0, indexOfLastSpace) + "...";
+        }
+        return plain;
+    }
+
+    /**
+     * Read markup starting with <code>&lt;</code> at the current position.
+     */
+    private void readMarkup() {
+        int end = html.length();
+        if (pos + 1 >= end) {
+            appendText('<');
+            pos++;
+            return;
+        }
+        char next = html.charAt(pos + 1);
+        if (isLetter(next)) {
+            pos++;
+            readStartTag();
+        } else if (next == '/') {
+            if (pos + 2 >= end) {
+                appendText('<');
+                appendText('/');
+                pos = end;
+            } else if (isLetter(html.charAt(pos + 2))) {
+                pos += 2;
+                readEndTag();
+            } else if (html.charAt(pos + 2) == '>') {
+                pos += 3;
+            } else {
+                skipPast(">");
+            }
+        } else if (next == '!') {
+            if (html.startsWith("<!--", pos)) {
+                pos += 4;
+                if (html.startsWith(">", pos)) {
+                    pos++;
+                } else if (html.startsWith("->", pos)) {
+                    pos += 2;
+                } else {
+                    skipPast("-->");
+                }
+            } else {
+                skipPast(">");
+            }
+        } else if (next == '?') {
+            skipPast(">");
+        } else {
+            appendText('<');
+            pos++;
+        }
+    }
+
+    /**
+     * Read a start tag, the current position is the first letter of the name.
+     */
+    private void readStartTag() {
+        String name = readTagName();
+        boolean selfClosing = false;
+        int end = html.length();
+        //Skip attributes
+        while (true) {
+            while (pos < end && isWhitespace(html.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= end) {
+                //Incomplete tag is dropped
+                return;
+            }
+            char c = html.charAt(pos);
+            if (c == '>') {
+                pos++;
+                break;
+            }
+            if (c == '/') {
+                pos++;
+                selfClosing = pos < end && html.charAt(pos) == '>';
+                continue;
+            }
+            while (pos < end && !isWhitespace(html.charAt(pos)) && "/>=".indexOf(html.charAt(pos)) < 0) {
+                pos++;
+            }
+            while (pos < end && isWhitespace(html.charAt(pos))) {
+                pos++;
+            }
+            if (pos < end && html.charAt(pos) == '=') {
+                pos++;
+                while (pos < end && isWhitespace(html.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < end && (html.charAt(pos) == '"' || html.charAt(pos) == '\'')) {
+                    int close = html.indexOf(html.charAt(pos), pos + 1);
+                    pos = close < 0 ? end : close + 1;
+                } else {
+                    while (pos < end && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+                        pos++;
+                    }
+                }
+            }
+        }
+        startElement(name);
+
+        if (DATA_TAGS.contains(name)) {
+            skipContent(name);
+        } else if (RAW_TEXT_TAGS.contains(name) || RCDATA_TAGS.contains(name)) {
+            //Text of the element, whose parent is the current element
+            boolean preserved = preserveWhitespace;
+            preserveWhitespace = PRESERVE_WHITESPACE_TAGS.contains(name) || isPreserving(openElements.size() - 1);
+            readTextContent(name, RCDATA_TAGS.contains(name));
+            preserveWhitespace = preserved;
+        } else if (name.equals("plaintext")) {
+            preserveWhitespace = true;
+            while (pos < end && !full) {
+                appendText(html.charAt(pos++));
+            }
+        } else if (!selfClosing && !VOID_TAGS.contains(name)) {
+            openElements.add(name);
+            updatePreserveWhitespace();
+        }
+    }
+
+    /**
+     * Read an end tag, the current position is the first letter of the name.
+     */
+    private void readEndTag() {
+        String name = readTagName();
+        skipPast(">");
+        if (name.equals("br")) {
+            //Treated as line break
+            startElement(name);
+            return;
+        }
+        int index = openElements.lastIndexOf(name);
+        if (index < 0) {
+            if (name.equals("p")) {
+                //Creates an empty paragraph
+                startElement(name);
+            }
+            return;
+        }
+        while (openElements.size() > index) {
+            openElements.remove(openElements.size() - 1);
+        }
+        updatePreserveWhitespace();
+    }
+
+    /**
+     * Read a tag name.
+     * @return The lower case tag name.
+     */
+    private String readTagName() {
+        int start = pos;
+        int end = html.length();
+        while (pos < end && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '/' && html.charAt(pos) != '>') {
+            pos++;
+        }
+        return html.substring(start, pos).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Handle the start of an element.
+     * @param name The element name.
+     */
+    private void startElement(String name) {
+        if (name.equals("html") || name.equals("head")) {
+            //Created at the start of the document
+            return;
+        }
+        if (name.equals("body")) {
+            if (!bodyStarted) {
+                startBody();
+            }
+            return;
+        }
+        if (!bodyStarted && !HEAD_TAGS.contains(name)) {
+            startBody();
+        }
+        if (BLOCK_TAGS.contains(name) || name.equals("br")) {
+            appendSpace();
+        }
+    }
+
+    /**
+     * Start the document body.
+     */
+    private void startBody() {
+        bodyStarted = true;
+        appendSpace();
+    }
+
+    /**
+     * Skip the data content and end tag of an element.
+     * @param name The element name.
+     */
+    private void skipContent(String name) {
+        int endTag = findEndTag(name);
+        pos = endTag < 0 ? html.length() : endTag;
+        if (endTag >= 0) {
+            skipPast(">");
+        }
+    }
+
+    /**
+     * Read the text content and end tag of an element without markup.
+     * @param name The element name.
+     * @param decode Flag if entities are decoded.
+     */
+    private void readTextContent(String name, boolean decode) {
+        int endTag = findEndTag(name);
+        int end = endTag < 0 ? html.length() : endTag;
+        while (pos < end && !full) {
+            char c = html.charAt(pos);
+            pos++;
+            if (c == '&' && decode) {
+                readReference();
+            } else {
+                appendText(c);
+            }
+        }
+        if (endTag >= 0 && !full) {
+            pos = endTag;
+            skipPast(">");
+        }
+    }
+
+    /**
+     * Find the end tag of an element.
+     * @param name The element name.
+     * @return The position of the end tag, or <code>-1</code> if the element is not closed.
+     */
+    private int findEndTag(String name) {
+        int end = html.length();
+        int index = pos;
+        while ((index = html.indexOf("</", index)) >= 0) {
+            int nameEnd = index + 2 + name.length();
+            if (html.regionMatches(true, index + 2, name, 0, name.length())
+                    && (nameEnd >= end || isWhitespace(html.charAt(nameEnd)) || html.charAt(nameEnd) == '/' || html.charAt(nameEnd) == '>')) {
+                return index;
+            }
+            index += 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Read a character reference, the current position is the character
+     * after the <code>&amp;</code>.
+     */
+    private void readReference() {
+        int end = html.length();
+        if (pos >= end || "\t\n\r\f <&".indexOf(html.charAt(pos)) >= 0) {
+            appendText('&');
+            return;
+        }
+        if (html.charAt(pos) == '#') {
+            int start = pos + 1;
+            boolean hex = start < end && (html.charAt(start) == 'x' || html.charAt(start) == 'X');
+            if (hex) {
+                start++;
+            }
+            int index = start;
+            while (index < end && (hex ? Character.digit(html.charAt(index), 16) >= 0 && html.charAt(index) < 128 : isDigit(html.charAt(index)))) {
+                index++;
+            }
+            if (index == start) {
+                appendText('&');
+                return;
+            }
+            String number = html.substring(start, index);
+            pos = index < end && html.charAt(index) == ';' ? index + 1 : index;
+            int value = -1;
+            try {
+                value = Integer.parseInt(number, hex ? 16 : 10);
+            } catch (NumberFormatException e) {
+                //Out of range
+            }
+            if (value == -1 || (value >= 0xD800 && value <= 0xDFFF) || value > 0x10FFFF) {
+                appendText('\uFFFD');
+            } else {
+                appendText((char) value);
+            }
+            return;
+        }
+        int index = pos;
+        while (index < end && isLetter(html.charAt(index))) {
+            index++;
+        }
+        while (index < end && isDigit(html.charAt(index))) {
+            index++;
+        }
+        String name = html.substring(pos, index);
+        while (name.length() > 0 && !Entities.isNamedEntity(name)) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.isEmpty()) {
+            appendText('&');
+            return;
+        }
+        pos += name.length();
+        if (pos < end && html.charAt(pos) == ';') {
+            pos++;
+        }
+        appendText(Entities.getCharacterByName(name));
+    }
+
+    /**
+     * Move the current position past the next occurrence of a string, or to
+     * the end if it does not occur.
+     * @param terminator The string.
+     */
+    private void skipPast(String terminator) {
+        int index = html.indexOf(terminator, pos);
+        pos = index < 0 ? html.length() : index + terminator.length();
+    }
+
+    /**
+     * Append a character of text.
+     * @param c The character.
+     */
+    private void appendText(char c) {
+        if (!bodyStarted && !preserveWhitespace && !isWhitespace(c)) {
+            //Text outside of the head starts the body
+            startBody();
+        }
+        if (preserveWhitespace) {
+            text.append(c);
+        } else if (isWhitespace(c)) {
+            if (text.length() == 0 || text.charAt(text.length() - 1) != ' ') {
+                text.append(' ');
+            }
+            return;
+        } else {
+            text.append(c);
+        }
+        if (c > ' ') {
+            if (first < 0) {
+                first = text.length() - 1;
+            }
+            //The text is longer than the summary
+            full = text.length() - first > length;
+        }
+    }
+
+    /**
+     * Separate the following text from the preceding text.
+     */
+    private void appendSpace() {
+        if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') {
+            text.append(' ');
+        }
+    }
+
+    /**
+     * Update the whitespace handling after the open elements changed.
+     */
+    private void updatePreserveWhitespace() {
+        int last = openElements.size() - 1;
+        preserveWhitespace = isPreserving(last) || isPreserving(last - 1);
+    }
+
+    /**
+     * @param index Index of an open element.
+     * @return <code>true</code> if the open element preserves whitespace
+     */
+    private boolean isPreserving(int index) {
+        return index >= 0 && PRESERVE_WHITESPACE_TAGS.contains(openElements.get(index));
+    }
+
+    /**
+     * @param c A character.
+     * @return <code>true</code> if the character is HTML whitespace
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @param c A character.
+     * @return <code>true</code> if the character is an ASCII letter
+     */
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @param c A character.
+     * @return <code>true</code> if the character is an ASCII digit
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -15,6 +15,7 @@ import org.hippoecm.hst.content.beans.query.filter.Filter;
 import org.hippoecm.hst.content.beans.standard.HippoBean;
 import org.hippoecm.hst.core.component.HstComponentException;
 import org.hippoecm.hst.core.component.HstRequest;
+import org.hippoecm.hst.site.HstServices;
 import org.hippoecm.hst.util.SearchInputParsingUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -110,6 +111,53 @@ public abstract class BaseComponent extends BaseHstComponent {
         }
     }
     
+    /**
+     * Get a site service configured in the HST assembly overrides.
+     * @param name The bean name of the service.
+     * @return The service, or <code>null</code> if the HST services are not
+     * available (e.g. in unit tests).
+     */
+    protected <T> T getSiteService(String name) {
+        if (!HstServices.isAvailable()) {
+            return null;
+        }
+        return HstServices.getComponentManager().getComponent(name);
+    }
+    
+    /**
+     * Look up the rendered fragment of the component in the live site. The
+     * fragment key is built from the key parts and the mount, which also
+     * determines the locale of the rendered site, and set as request attribute
+     * <code>fragmentKey</code>; a cached fragment is set as request attribute
+     * <code>fragment</code>. The JSP renders both with the
+     * <code>site:fragment</code> tag.
+     * @param request The request.
+     * @param keyParts Identifier of the rendered document handle and the version
+     * of all content rendered in the fragment.
+     * @return The cached fragment, or <code>null</code> if it is not cached or
+     * fragments are not cached for the request (e.g. in preview).
+     */
+    protected String getCachedFragment(final HstRequest request, final String... keyParts) {
+        if (request.getRequestContext().isPreview()) {
+            return null;
+        }
+        FragmentCache cache = getSiteService(FragmentCache.class.getName());
+        if (cache == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(getClass().getName());
+        for (String part : keyParts) {
+            key.append('|').append(part);
+        }
+        key.append('|').append(request.getRequestContext().getResolvedMount().getMount().getIdentifier());
+        request.setAttribute("fragmentKey", key.toString());
+        String fragment = cache.get(key.toString());
+        if (fragment != null) {
+            request.setAttribute("fragment", fragment);
+        }
+        return fragment;
+    }
+
     /**
      * Get component info.
      * @param request Request object.
@@ -1,7 +1,10 @@
 package org.pfs.de.components;
 
+import java.util.Calendar;
 import java.util.logging.Level;
 
+import javax.jcr.RepositoryException;
+
 import org.hippoecm.hst.content.beans.standard.HippoBean;
 import org.hippoecm.hst.core.component.HstComponentException;
 import org.hippoecm.hst.core.component.HstRequest;
@@ -28,6 +31,15 @@ public class BlogDetail extends BaseComponent {
       response.setStatus(404);
       throw new HstComponentException(msg);
     }
+
+    try {
+      //Rendered article is cached until the document is published again
+      Calendar modified = document.getProperty("hippostdpubwf:lastModificationDate");
+      getCachedFragment(request, document.getNode().getParent().getIdentifier(),
+          modified == null ? "" : String.valueOf(modified.getTimeInMillis()));
+    } catch (RepositoryException ex) {
+      log.warn("Cannot read document handle, fragment is not cached", ex);
+    }
   }
 
 }
@@ -1,15 +1,21 @@
 package org.pfs.de.components;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.hippoecm.hst.content.beans.query.HstQuery;
 import org.hippoecm.hst.content.beans.query.HstQueryResult;
 import org.hippoecm.hst.content.beans.query.exceptions.QueryException;
+import org.hippoecm.hst.content.beans.query.filter.Filter;
 import org.pfs.de.componentsinfo.PageableListInfo;
 import org.hippoecm.hst.core.parameters.ParametersInfo;
 import org.hippoecm.hst.content.beans.standard.HippoBean;
+import org.hippoecm.hst.content.beans.standard.HippoBeanIterator;
 import org.hippoecm.hst.core.component.HstComponentException;
 import org.hippoecm.hst.core.component.HstRequest;
 import org.hippoecm.hst.core.component.HstResponse;
@@ -22,6 +28,12 @@ public class BlogOverview extends BaseComponent {
 
   public static final Logger log = LoggerFactory.getLogger(BlogOverview.class);
 
+  /**
+   * Format of a page cursor: the publication date in milliseconds and the
+   * identifier of the last entry on the previous page.
+   */
+  private static final Pattern CURSOR = Pattern.compile("(\\d{1,18}):([0-9a-fA-F-]+)");
+
   @Override
   public void doBeforeRender(final HstRequest request, final HstResponse response) throws HstComponentException {
 
@@ -37,35 +49,69 @@ public class BlogOverview extends BaseComponent {
     }
 
     try {
-     //Read all blog entries
-     @SuppressWarnings("unchecked")
-	 HstQuery query = getQueryManager(request).createQuery(scope, BlogDocument.class);
-     query.addOrderByDescending("hippostdpubwf:publicationDate");
-     HstQueryResult result = query.execute();
-     
-     //Set up pagination
-     request.setAttribute("result", result);
-     
      //Parse page parameter
      int page = 1;
      if (request.getParameter("page") != null) {
          try {
-            page = Integer.parseInt(request.getParameter("page"));
+            page = Math.max(Integer.parseInt(request.getParameter("page")), 1);
          } catch (NumberFormatException e) {
              log.warn("Invalid page number", e);
          }
      }
      request.setAttribute("page", page);
+     int pageSize = info.getPageSize();
+     
+     //Read the blog entries of the requested page
+     @SuppressWarnings("unchecked")
+	 HstQuery query = getQueryManager(request).createQuery(scope, BlogDocument.class);
+     query.addOrderByDescending("hippostdpubwf:publicationDate");
+     //Entries published at the same time are ordered by identifier
+     query.addOrderByDescending("jcr:uuid");
+     query.setLimit(pageSize);
+     Matcher cursor = parseCursor(request.getParameter("after"));
+     if (cursor != null) {
+         //Continue after the last entry of the previous page instead of skipping entries
+         Calendar after = Calendar.getInstance();
+         after.setTimeInMillis(Long.parseLong(cursor.group(1)));
+         Filter filter = query.createFilter();
+         filter.addLessThan("hippostdpubwf:publicationDate", after);
+         Filter sameDate = query.createFilter();
+         sameDate.addEqualTo("hippostdpubwf:publicationDate", after);
+         sameDate.addLessThan("jcr:uuid", cursor.group(2).toLowerCase());
+         filter.addOrFilter(sameDate);
+         query.setFilter(filter);
+     } else {
+         query.setOffset((page - 1) * pageSize);
+     }
+     HstQueryResult result = query.execute();
+     
+     List<BlogDocument> documents = new ArrayList<BlogDocument>(pageSize);
+     HippoBeanIterator iterator = result.getHippoBeans();
+     while (iterator.hasNext()) {
+         HippoBean bean = iterator.nextHippoBean();
+         if (bean instanceof BlogDocument) {
+             documents.add((BlogDocument) bean);
+         }
+     }
+     request.setAttribute("documents", documents);
+     
+     //Cursor for the link to the next page
+     if (!documents.isEmpty() && documents.size() == pageSize) {
+         BlogDocument lastDocument = documents.get(documents.size() - 1);
+         Date last = lastDocument.getDate();
+         if (last != null) {
+             request.setAttribute("next", String.valueOf(last.getTime()) + ':' + lastDocument.getCanonicalUUID());
+         }
+     }
      
      //Calculate page count
-     int pageCount = result.getSize() / info.getPageSize();
-     if (result.getSize() % info.getPageSize() != 0) {
+     int totalSize = getTotalSize(request, scope, result, cursor != null);
+     int pageCount = totalSize / pageSize;
+     if (totalSize % pageSize != 0) {
          pageCount += 1;
      }
      
-     //Create list with page numbers and calculate at which entry
-     //to start the display of entries
-     int skipEntries = 0;
+     //Create list with page numbers
      if (pageCount > 1) {
          List<Integer> pages = new ArrayList<Integer>();
          
@@ -74,9 +120,7 @@ public class BlogOverview extends BaseComponent {
          }
          
          request.setAttribute("pages", pages);
-         skipEntries = (page - 1) * info.getPageSize();
      }
-     request.setAttribute("begin", skipEntries);
      
     } catch (QueryException ex) {
       java.util.logging.Logger.getLogger(BlogOverview.class.getName()).log(Level.SEVERE, null, ex);
@@ -86,4 +130,61 @@ public class BlogOverview extends BaseComponent {
     
   }
 
+  /**
+   * Parse the cursor of a page, the publication date in milliseconds and the
+   * identifier of the last entry on the previous page.
+   * @param cursor The cursor parameter.
+   * @return The matched cursor with the date as first and the identifier as
+   * second group, or <code>null</code> if the cursor is empty or invalid.
+   */
+  private Matcher parseCursor(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+    Matcher matcher = CURSOR.matcher(cursor);
+    if (!matcher.matches()) {
+      log.warn("Invalid page cursor {}", cursor);
+      return null;
+    }
+    return matcher;
+  }
+
+  /**
+   * Get the total number of blog entries below the scope. The count is taken
+   * from the {@link DocumentCountCache}, if available.
+   * @param request The request.
+   * @param scope The scope of the query.
+   * @param result The result of the page query.
+   * @param filtered <code>true</code> if the page query was restricted by a cursor,
+   * so that its total size does not contain all entries.
+   * @return The total number of entries.
+   * @throws QueryException
+   */
+  private int getTotalSize(HstRequest request, HippoBean scope, HstQueryResult result, boolean filtered) throws QueryException {
+    DocumentCountCache cache = getSiteService(DocumentCountCache.class.getName());
+    String key = null;
+    long generation = 0;
+    if (cache != null) {
+      key = scope.getPath() + '|' + BlogDocument.class.getName() + '|' + request.getRequestContext().isPreview();
+      Integer count = cache.get(key);
+      if (count != null) {
+        return count;
+      }
+      generation = cache.getGeneration();
+    }
+    int count;
+    if (filtered) {
+      @SuppressWarnings("unchecked")
+      HstQuery query = getQueryManager(request).createQuery(scope, BlogDocument.class);
+      query.setLimit(1);
+      count = query.execute().getTotalSize();
+    } else {
+      count = result.getTotalSize();
+    }
+    if (cache != null) {
+      cache.put(key, count, generation);
+    }
+    return count;
+  }
+
 }
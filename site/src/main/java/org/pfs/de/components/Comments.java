@@ -1,14 +1,19 @@
 package org.pfs.de.components;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.jcr.RepositoryException;
 
+import org.hippoecm.hst.content.beans.ObjectBeanManagerException;
+import org.hippoecm.hst.content.beans.manager.ObjectBeanManager;
 import org.hippoecm.hst.content.beans.query.HstQuery;
 import org.hippoecm.hst.content.beans.query.HstQueryResult;
 import org.hippoecm.hst.content.beans.query.exceptions.QueryException;
 import org.hippoecm.hst.content.beans.query.filter.Filter;
 import org.hippoecm.hst.content.beans.standard.HippoBean;
+import org.hippoecm.hst.content.beans.standard.HippoBeanIterator;
 import org.hippoecm.hst.core.component.HstComponentException;
 import org.hippoecm.hst.core.component.HstRequest;
 import org.hippoecm.hst.core.component.HstResponse;
@@ -16,6 +21,7 @@ import org.hippoecm.hst.core.parameters.ParametersInfo;
 import org.pfs.de.beans.BlogDocument;
 import org.pfs.de.beans.CommentDocument;
 import org.pfs.de.componentsinfo.PageableListInfo;
+import org.pfs.de.services.CommentIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,20 +49,48 @@ public class Comments extends BaseComponent {
     }
 
     try {
-        //Read comments for the selected document
-        @SuppressWarnings("unchecked")
-		HstQuery query = getQueryManager(request).createQuery(getSiteContentBaseBean(request), CommentDocument.class);
-        query.addOrderByDescending("hippostdpubwf:publicationDate");
-        Filter filter = query.createFilter();
-         
     	//Comments are linked to parent of current node/blog document.
         String linkedNodeId = document.getNode().getParent().getIdentifier();
-	    filter.addEqualTo("website:reference/@hippo:docbase", linkedNodeId.toLowerCase());
-	    query.setFilter(filter);
-	    HstQueryResult result = query.execute();
+        List<CommentDocument> comments = new ArrayList<CommentDocument>();
+        
+        CommentIndex index = getSiteService(CommentIndex.class.getName());
+        if (index != null && !request.getRequestContext().isPreview()) {
+        	//Read comments from the index of live comments
+        	CommentIndex.Entry entry = index.get(linkedNodeId);
+        	if (getCachedFragment(request, linkedNodeId, String.valueOf(entry.getVersion())) != null) {
+        		//Rendered comments are still current
+        		return;
+        	}
+        	ObjectBeanManager objectBeanManager = getObjectBeanManager(request);
+        	for (String commentId : entry.getCommentIds()) {
+        		Object comment = objectBeanManager.getObjectByUuid(commentId);
+        		if (comment instanceof CommentDocument) {
+        			comments.add((CommentDocument) comment);
+        		}
+        	}
+        } else {
+	        //Read comments for the selected document
+	        @SuppressWarnings("unchecked")
+			HstQuery query = getQueryManager(request).createQuery(getSiteContentBaseBean(request), CommentDocument.class);
+	        query.addOrderByDescending("hippostdpubwf:publicationDate");
+	        Filter filter = query.createFilter();
+		    filter.addEqualTo("website:reference/@hippo:docbase", linkedNodeId.toLowerCase());
+		    query.setFilter(filter);
+		    HstQueryResult result = query.execute();
+		    HippoBeanIterator iterator = result.getHippoBeans();
+		    while (iterator.hasNext()) {
+		    	HippoBean comment = iterator.nextHippoBean();
+		    	if (comment != null) {
+		    		comments.add((CommentDocument) comment);
+		    	}
+		    }
+        }
 	     
 	    //Set search results
-	    request.setAttribute("comments", result);
+	    request.setAttribute("comments", comments);
+	} catch (ObjectBeanManagerException ex) {
+		//Failed reading of comment is not a fatal error, log and continue
+		java.util.logging.Logger.getLogger(Comments.class.getName()).log(Level.WARNING, null, ex);
 	} catch (RepositoryException ex) {
 		//Failed search for query is not a fatal error, log and continue
 		java.util.logging.Logger.getLogger(Comments.class.getName()).log(Level.WARNING, null, ex);
@@ -0,0 +1,141 @@
+package org.pfs.de.components;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for the total number of documents of overview pages.
+ *
+ * <p>Counting requires the query to collect the complete result, so the count
+ * is computed once per key (e.g. scope, document type and preview flag) and
+ * kept until the availability of any document changes. The cache is a JCR
+ * {@link EventListener} and must be registered for property and node removal
+ * events on the content (see the <code>event-listeners.xml</code> HST assembly
+ * override).</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class DocumentCountCache implements EventListener {
+
+    /**
+     * Logging instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DocumentCountCache.class);
+
+    /**
+     * Document counts by key.
+     */
+    private final ConcurrentMap<String, Integer> counts = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Incremented on each invalidation. Counts computed while the cache was
+     * invalidated are not stored.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for counts not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get a count.
+     * @param key The key of the count.
+     * @return The count, or <code>null</code> if it is not cached.
+     */
+    public Integer get(String key) {
+        Integer count = counts.get(key);
+        if (count == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return count;
+    }
+
+    /**
+     * Get the current generation, to be passed to {@link #put(String, int, long)}
+     * after the count has been computed.
+     * @return The generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Store a count, unless the cache has been invalidated since it was computed.
+     * @param key The key of the count.
+     * @param count The count.
+     * @param computedGeneration The generation before the count was computed.
+     */
+    public void put(String key, int count, long computedGeneration) {
+        if (computedGeneration == generation.get()) {
+            counts.put(key, count);
+        }
+    }
+
+    /**
+     * Remove all counts.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        counts.clear();
+    }
+
+    /**
+     * Remove all counts if a document was published, unpublished, moved or removed.
+     * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+     */
+    @Override
+    public void onEvent(EventIterator events) {
+        try {
+            while (events.hasNext()) {
+                Event event = events.nextEvent();
+                if (event.getType() == Event.NODE_REMOVED || event.getType() == Event.NODE_MOVED
+                        || event.getPath().endsWith("/hippo:availability")) {
+                    clear();
+                    return;
+                }
+            }
+        } catch (RepositoryException e) {
+            log.warn("Cannot read event, clearing document counts", e);
+            clear();
+        }
+    }
+
+    /**
+     * @return the number of cached counts
+     */
+    public int getSize() {
+        return counts.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups for counts not in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,282 @@
+package org.pfs.de.components;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.hippoecm.repository.api.HippoNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for rendered fragments of the live site.
+ *
+ * <p>Keys are built by the components from the identifier of the document
+ * handle, the mount and a version of the rendered content (e.g. the
+ * modification date of the document or the version of the comment index entry),
+ * see {@link BaseComponent#getCachedFragment(org.hippoecm.hst.core.component.HstRequest, String...)}.
+ * Publishing a document or one of its comments changes the version, so that an
+ * outdated fragment is never found again and is evicted as least recently used.</p>
+ *
+ * <p>The cache is bounded by the total number of characters of the fragments.
+ * It is a JCR {@link EventListener}: all fragments are removed when a document
+ * handle or a folder is moved or removed, since a fragment may contain links to
+ * any document. Removed or moved variants, publication requests and other
+ * nodes below a handle (e.g. when a draft is discarded or a workflow runs) do
+ * not change any link and are ignored.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class FragmentCache implements EventListener {
+
+    /**
+     * Logging instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FragmentCache.class);
+
+    /**
+     * Node type of folders.
+     */
+    private static final String NT_FOLDER = "hippostd:folder";
+
+    /**
+     * Node type of directories.
+     */
+    private static final String NT_DIRECTORY = "hippostd:directory";
+
+    /**
+     * Repository used to create sessions.
+     */
+    private Repository repository;
+
+    /**
+     * Credentials for sessions, must give read access to all documents and folders.
+     */
+    private Credentials credentials;
+
+    /**
+     * Fragments by key, least recently used first.
+     */
+    private final LinkedHashMap<String, String> fragments = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+    /**
+     * Total number of characters of the cached fragments.
+     */
+    private long length;
+
+    /**
+     * Maximum total number of characters of the cached fragments.
+     */
+    private long maxLength = 4 * 1024 * 1024;
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of lookups for fragments not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get a fragment.
+     * @param key The fragment key.
+     * @return The fragment, or <code>null</code> if it is not cached.
+     */
+    public String get(String key) {
+        String fragment;
+        synchronized (fragments) {
+            fragment = fragments.get(key);
+        }
+        if (fragment == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return fragment;
+    }
+
+    /**
+     * Store a fragment. Least recently used fragments are removed until the
+     * cache fits into its maximum length. Fragments larger than the maximum
+     * length are not stored.
+     * @param key The fragment key.
+     * @param fragment The rendered fragment.
+     */
+    public void put(String key, String fragment) {
+        if (fragment.length() > maxLength) {
+            return;
+        }
+        synchronized (fragments) {
+            String previous = fragments.put(key, fragment);
+            if (previous != null) {
+                length -= previous.length();
+            }
+            length += fragment.length();
+            Iterator<Map.Entry<String, String>> iterator = fragments.entrySet().iterator();
+            while (length > maxLength && iterator.hasNext()) {
+                length -= iterator.next().getValue().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all fragments.
+     */
+    public void clear() {
+        synchronized (fragments) {
+            fragments.clear();
+            length = 0;
+        }
+    }
+
+    /**
+     * Remove all fragments if a document handle or a folder was moved or removed.
+     * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+     */
+    @Override
+    public void onEvent(EventIterator events) {
+        Session session = null;
+        try {
+            while (events.hasNext()) {
+                Event event = events.nextEvent();
+                if (event.getType() != Event.NODE_MOVED && event.getType() != Event.NODE_REMOVED) {
+                    continue;
+                }
+                if (session == null) {
+                    session = repository.login(credentials);
+                }
+                boolean affectsLinks = event.getType() == Event.NODE_MOVED 
+                        ? isHandleOrFolder(session, event.getPath()) 
+                        : isRemovedFromFolder(session, event.getPath());
+                if (affectsLinks) {
+                    clear();
+                    return;
+                }
+            }
+        } catch (RepositoryException e) {
+            log.warn("Cannot read event, clearing fragments", e);
+            clear();
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    /**
+     * Check whether a moved node is a document handle or a folder.
+     * @param session The session used to read the node.
+     * @param path The new path of the node.
+     * @return <code>true</code> if the node is a handle or a folder.
+     * @throws RepositoryException
+     */
+    private boolean isHandleOrFolder(Session session, String path) throws RepositoryException {
+        if (!session.nodeExists(path)) {
+            return false;
+        }
+        Node node = session.getNode(path);
+        return node.isNodeType(HippoNodeType.NT_HANDLE) || isFolder(node);
+    }
+
+    /**
+     * Check whether a removed node was a document handle or a folder. Only
+     * handles and folders are children of folders; the type of the removed
+     * node itself cannot be read anymore.
+     * @param session The session used to read the parent of the node.
+     * @param path The path of the removed node.
+     * @return <code>true</code> if the parent of the node is a folder. If the
+     * parent was removed as well, the event of the parent decides.
+     * @throws RepositoryException
+     */
+    private boolean isRemovedFromFolder(Session session, String path) throws RepositoryException {
+        String parentPath = path.substring(0, Math.max(path.lastIndexOf('/'), 1));
+        if (!session.nodeExists(parentPath)) {
+            return false;
+        }
+        return isFolder(session.getNode(parentPath));
+    }
+
+    /**
+     * Check whether a node is a folder.
+     * @param node The node.
+     * @return <code>true</code> if the node is a folder or directory.
+     * @throws RepositoryException
+     */
+    private boolean isFolder(Node node) throws RepositoryException {
+        return node.isNodeType(NT_FOLDER) || node.isNodeType(NT_DIRECTORY);
+    }
+
+    /**
+     * @param repository the repository used to create sessions
+     */
+    public void setRepository(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @param credentials the credentials for sessions, must give read access to all documents and folders
+     */
+    public void setCredentials(Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+    /**
+     * @param maxLength the maximum total number of characters of the cached fragments
+     */
+    public void setMaxLength(long maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the maximum total number of characters of the cached fragments
+     */
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the total number of characters of the cached fragments
+     */
+    public long getLength() {
+        synchronized (fragments) {
+            return length;
+        }
+    }
+
+    /**
+     * @return the number of cached fragments
+     */
+    public int getSize() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups for fragments not in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
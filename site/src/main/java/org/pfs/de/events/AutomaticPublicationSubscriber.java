@@ -4,18 +4,14 @@
 package org.pfs.de.events;
 
 import java.rmi.RemoteException;
-import java.util.Arrays;
 
 import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 
 import org.hippoecm.repository.api.HippoNodeType;
-import org.hippoecm.repository.api.HippoWorkspace;
-import org.hippoecm.repository.api.Workflow;
 import org.hippoecm.repository.api.WorkflowException;
-import org.hippoecm.repository.reviewedactions.FullReviewedActionsWorkflow;
 import org.onehippo.forge.repositoryeventlistener.hst.events.BaseHippoEventSubscriber;
 import org.onehippo.forge.repositoryeventlistener.hst.hippo.EventType;
 import org.onehippo.forge.repositoryeventlistener.hst.hippo.HippoEvent;
@@ -25,9 +21,13 @@ import org.slf4j.LoggerFactory;
 /**
  * Event subscriber for automatic publishing.
  * 
+ * <p>Events are processed by a pool of workers, if configured (see
+ * {@link #setWorkerPool(EventWorkerPool)}), so that bulk changes do not
+ * block other subscribers.</p>
+ * 
  * <p>This subscriber requires the 
  * <a href="http://repo_event_list.forge.onehippo.org">Repository Event Listener</a>
- * plugin for Hippo. The JCR user for the event handler must have the following
+ * plugin for Hippo. The JCR users for the event handler and the workers must have the following
  * permissions for nodes on which an action is defined:
  * <ul>
  *   <li>Read nodes (up to root node)</li>
@@ -100,6 +100,35 @@ public class AutomaticPublicationSubscriber extends BaseHippoEventSubscriber {
 	 */
 	private static final Logger log = LoggerFactory.getLogger(AutomaticPublicationSubscriber.class);
 	
+	/**
+	 * Cache for publish actions resolved on folders.
+	 */
+	private PublishActionCache publishActionCache;
+	
+	/**
+	 * Set the cache for publish actions resolved on folders. If no cache is set,
+	 * the ancestors are read for every event.
+	 * @param publishActionCache The cache. Must be registered for repository
+	 * events to be updated on configuration changes.
+	 */
+	public void setPublishActionCache(PublishActionCache publishActionCache) {
+		this.publishActionCache = publishActionCache;
+	}
+	
+	/**
+	 * Workers processing the events.
+	 */
+	private EventWorkerPool workerPool;
+	
+	/**
+	 * Set the workers processing the events. If no workers are set or the
+	 * workers are not running, events are processed on the event listener thread.
+	 * @param workerPool The workers.
+	 */
+	public void setWorkerPool(EventWorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+	
 	/**
 	 * @see org.onehippo.forge.repositoryeventlistener.hst.hippo.HippoEventSubscriber#getName()
 	 */
@@ -112,98 +141,117 @@ public class AutomaticPublicationSubscriber extends BaseHippoEventSubscriber {
 	 * @see org.onehippo.forge.repositoryeventlistener.hst.events.BaseHippoEventSubscriber#onEvent(org.onehippo.forge.repositoryeventlistener.hst.hippo.HippoEvent)
 	 */
 	@Override
-	public void onEvent(HippoEvent event) {
+	public void onEvent(final HippoEvent event) {
+		final boolean documentNew = !event.getType().equals(EventType.UNPUBLISHED) && isDocumentNew(event);
+		if (workerPool != null && workerPool.isRunning()) {
+			//Events for the same node are processed in order by the same worker
+			try {
+				workerPool.submit(event.getIdentifier(), new EventWorkerPool.Task() {
+					@Override
+					public boolean run(Session session) throws Exception {
+						//Changes for ignored nodes are saved in batches by the worker
+						return processEvent(session, event, documentNew, true);
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while queueing event for node {}", event.getIdentifier());
+			}
+		} else {
+			try {
+				processEvent(getSession(), event, documentNew, false);
+			} catch (RepositoryException | RemoteException | WorkflowException e) {
+				log.error("Publication of document failed", e);
+			}
+		}
+	}
+	
+	/**
+	 * Process an event.
+	 * @param session The session used to read and modify nodes.
+	 * @param event The event.
+	 * @param documentNew Flag if the event is a document creation or change.
+	 * @param deferSave If <code>true</code>, changes for nodes set to ignore are not saved.
+	 * Publications are always saved.
+	 * @return <code>true</code> if changes were left unsaved.
+	 * @throws RepositoryException
+	 * @throws RemoteException Publication failed.
+	 * @throws WorkflowException Error reading workflow.
+	 */
+	protected boolean processEvent(Session session, HippoEvent event, boolean documentNew, boolean deferSave) throws RepositoryException, RemoteException, WorkflowException {
 		if (log.isDebugEnabled()) {
 			log.debug("Handling event type {} ({}) for node {} ({})", event.getType().name(), event.getType().getType(), event.getIdentifier(), event.getPath());
 		}
-		try {
-			boolean success = false;
-			Node eventNode = getSession().getNodeByIdentifier(event.getIdentifier());
-			if (eventNode == null) {
-				log.error("Node {} not found in current session", event.getIdentifier());
-				return;
+		Node eventNode = session.getNodeByIdentifier(event.getIdentifier());
+		if (eventNode == null) {
+			log.error("Node {} not found in current session", event.getIdentifier());
+			return false;
+		}
+		
+		if (event.getType().equals(EventType.UNPUBLISHED)) {
+			//Ignore unpublished nodes in future
+			if (log.isDebugEnabled()) {
+				log.debug("Node {} is unpublished, setting Akismet action to ignore", eventNode.getIdentifier());
 			}
-			
-			if (event.getType().equals(EventType.UNPUBLISHED)) {
-				//Ignore unpublished nodes in future
-				if (log.isDebugEnabled()) {
-					log.debug("Node {} is unpublished, setting Akismet action to ignore", eventNode.getIdentifier());
-				}
-				ignoreNode(eventNode);
-			} else if (isDocumentNew(event)) {
-				//Document created or changed
-				PublishAction action = getPublishAction(eventNode);
-				if (action == null) {
-					//Configuration incomplete, cancel processing
-					log.warn("Reading configuration for node {} returned no publish action", eventNode.getIdentifier());
-					return;
-				}
-				if (action.equals(PublishAction.IGNORE)) {
-					//Node shall be ignored
-					if (log.isDebugEnabled()) {
-						log.debug("Node {} is set to ignore", eventNode.getIdentifier());
-					}
-					return;
-				}
-
-				Node nodeToPublish = null;
-				if (eventNode.isNodeType(HippoNodeType.NT_HANDLE)) {
-					nodeToPublish = findUnpublishedDocumentVersion(eventNode);
-				} else {
-					//New node is not a handle
-					log.debug("Document creation event recieved, but new node is not a document handle ({})", eventNode.getPrimaryNodeType().getName());
-				}
-				
-				//Check that publishable node was found
-				if (nodeToPublish == null) {
-					log.debug("Found no publishable document");
-					return;
+			if (ignoreNode(eventNode)) {
+				if (deferSave) {
+					return true;
 				}
+				session.save();
+			}
+		} else if (documentNew) {
+			//Document created or changed
+			PublishAction action = getPublishAction(session, eventNode);
+			if (action == null) {
+				//Configuration incomplete, cancel processing
+				log.warn("Reading configuration for node {} returned no publish action", eventNode.getIdentifier());
+				return false;
+			}
+			if (action.equals(PublishAction.IGNORE)) {
+				//Node shall be ignored
 				if (log.isDebugEnabled()) {
-					log.debug("Attempting to publish node {} ({}))", nodeToPublish.getIdentifier(), nodeToPublish.getPath());
+					log.debug("Node {} is set to ignore", eventNode.getIdentifier());
 				}
-				success = publishDocument(nodeToPublish, action);
+				return false;
+			}
+
+			Node nodeToPublish = null;
+			if (eventNode.isNodeType(HippoNodeType.NT_HANDLE)) {
+				nodeToPublish = findUnpublishedDocumentVersion(eventNode);
+			} else {
+				//New node is not a handle
+				log.debug("Document creation event recieved, but new node is not a document handle ({})", eventNode.getPrimaryNodeType().getName());
+			}
+			
+			//Check that publishable node was found
+			if (nodeToPublish == null) {
+				log.debug("Found no publishable document");
+				return false;
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Attempting to publish node {} ({}))", nodeToPublish.getIdentifier(), nodeToPublish.getPath());
 			}
-			//If node change was successful (set to ignore, publish, or publication request)
-			// save changes in session.
-			if (success) {
-				getSession().save();
+			//If publication was successful save changes in session.
+			if (publishDocument(session, nodeToPublish, action)) {
+				session.save();
 			}
-		} catch (RepositoryException | RemoteException | WorkflowException e) {
-			log.error("Publication of document failed", e);
 		}
+		return false;
 	}
 	
 	/**
 	 * Get the publish action configured on the <code>node</code>. Searches the given node and
 	 * all parent nodes up to the root node.
+	 * @param session The session used to read the nodes.
 	 * @param node The node.
 	 * @return The configured publish action, or <code>null</code> if no action was configured.
 	 * @throws RepositoryException 
 	 */
-	protected PublishAction getPublishAction(Node node) throws RepositoryException {
-		Node currentNode = node;
-		Node rootNode = getSession().getRootNode();
-		PublishAction action = null;
-		while(action == null) {
-			//If current node is Akismet configuration node, read configuration data
-			if (currentNode.isNodeType(NT_WEBSITE_AUTOPUBLISH)) {
-				if (currentNode.hasProperty(PROP_PUBLISH_ACTION)) {
-					String actionValue = currentNode.getProperty(PROP_PUBLISH_ACTION).getString().trim();
-					action = PublishAction.getAction(actionValue);
-					if (action == null) {
-						log.warn("Unknown publish action {} found on node {} ({})", actionValue, node.getIdentifier(), node.getPath());
-					}
-				}
-			}
-			if (rootNode.isSame(currentNode)) {
-				//Reached root node, end processing
-				break;
-			}
-			//Move to parent node
-			currentNode = currentNode.getParent();
+	protected PublishAction getPublishAction(Session session, Node node) throws RepositoryException {
+		if (publishActionCache != null) {
+			return publishActionCache.getPublishAction(session, node);
 		}
-		return action;
+		return DocumentPublisher.getPublishAction(session, node);
 	}
 	
 	/**
@@ -260,19 +308,12 @@ public class AutomaticPublicationSubscriber extends BaseHippoEventSubscriber {
 	 * @throws RepositoryException
 	 */
 	protected Node findUnpublishedDocumentVersion(Node documentHandle) throws RepositoryException {
-		NodeIterator children = documentHandle.getNodes();
-		while (children.hasNext()) {
-			Node documentNode = (Node) children.next();
-			//Find unpublished state
-			if (documentNode.isNodeType("hippostdpubwf:document") && documentNode.hasProperty("hippostd:state") && documentNode.getProperty("hippostd:state").getString().equals("unpublished")) {
-				return documentNode;
-			}
-		}
-		return null;
+		return DocumentPublisher.findUnpublishedDocumentVersion(documentHandle);
 	}
 	
 	/**
 	 * Publish a document.
+	 * @param session The session used to obtain the workflow.
 	 * @param documentNode The node of the document to publish.
 	 * @return <code>true</code> if publication was successful, <code>false</code> if it fails. Reason
 	 * for failure will be written into the log.
@@ -280,32 +321,8 @@ public class AutomaticPublicationSubscriber extends BaseHippoEventSubscriber {
 	 * @throws RemoteException Publication failed.
 	 * @throws WorkflowException Error reading workflow.
 	 */
-	protected boolean publishDocument(Node documentNode, PublishAction action) throws RepositoryException, RemoteException, WorkflowException {
-		if (action.equals(PublishAction.IGNORE)) {
-			log.warn("Node {} set to ignore, cannot publish", documentNode.getIdentifier());
-			return false;
-		}
-		//Find correct workflow for publishing
-		Workflow workflow = ((HippoWorkspace)getSession().getWorkspace()).getWorkflowManager().getWorkflow("default", documentNode);
-		if (workflow == null) {
-			log.warn("Found no workflow for category {} and node {} ({})", "default", documentNode.getPath(), documentNode.getIdentifier());
-			return false;
-		}
-		
-		if (workflow instanceof FullReviewedActionsWorkflow) {
-			//Publish document or send publication request
-			if (PublishAction.PUBLISH.equals(action)) {
-				((FullReviewedActionsWorkflow)workflow).publish();
-			} else if (PublishAction.PUBLICATION_REQUEST.equals(action)) {
-				((FullReviewedActionsWorkflow)workflow).requestPublication();
-			} else {
-				log.error("Unexpected Akismet action requested: {}", action.value);
-			}
-		} else {
-			log.error("Workflow has wrong interface type: {}", Arrays.asList(workflow.getClass().getInterfaces()));
-			return false;
-		}
-		return true;
+	protected boolean publishDocument(Session session, Node documentNode, PublishAction action) throws RepositoryException, RemoteException, WorkflowException {
+		return DocumentPublisher.publishDocument(session, documentNode, action);
 	}
 	
 	
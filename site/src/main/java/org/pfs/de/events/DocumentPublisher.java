@@ -0,0 +1,144 @@
+package org.pfs.de.events;
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.hippoecm.repository.api.HippoWorkspace;
+import org.hippoecm.repository.api.Workflow;
+import org.hippoecm.repository.api.WorkflowException;
+import org.hippoecm.repository.reviewedactions.FullReviewedActionsWorkflow;
+import org.pfs.de.events.AutomaticPublicationSubscriber.PublishAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper methods to read the automatic publishing configuration and to
+ * publish documents through the workflow. Used by the
+ * {@link AutomaticPublicationSubscriber} and by background jobs which
+ * publish documents outside of a repository event.
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public final class DocumentPublisher {
+
+	/**
+	 * Logger instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(DocumentPublisher.class);
+
+	/**
+	 * No instances, static helper methods only.
+	 */
+	private DocumentPublisher() {
+	}
+
+	/**
+	 * Get the publish action configured on the <code>node</code>. Searches the given node and
+	 * all parent nodes up to the root node.
+	 * @param session The session used to read the node.
+	 * @param node The node.
+	 * @return The configured publish action, or <code>null</code> if no action was configured.
+	 * @throws RepositoryException 
+	 */
+	public static PublishAction getPublishAction(Session session, Node node) throws RepositoryException {
+		Node currentNode = node;
+		Node rootNode = session.getRootNode();
+		PublishAction action = null;
+		while(action == null) {
+			//If current node is Akismet configuration node, read configuration data
+			action = readPublishAction(currentNode);
+			if (rootNode.isSame(currentNode)) {
+				//Reached root node, end processing
+				break;
+			}
+			//Move to parent node
+			currentNode = currentNode.getParent();
+		}
+		return action;
+	}
+
+	/**
+	 * Read the publish action configured directly on a node. Parent nodes are
+	 * not considered.
+	 * @param node The node.
+	 * @return The configured publish action, or <code>null</code> if the node
+	 * has no (valid) action configured.
+	 * @throws RepositoryException
+	 */
+	public static PublishAction readPublishAction(Node node) throws RepositoryException {
+		if (node.isNodeType(AutomaticPublicationSubscriber.NT_WEBSITE_AUTOPUBLISH)
+				&& node.hasProperty(AutomaticPublicationSubscriber.PROP_PUBLISH_ACTION)) {
+			String actionValue = node.getProperty(AutomaticPublicationSubscriber.PROP_PUBLISH_ACTION).getString().trim();
+			PublishAction action = PublishAction.getAction(actionValue);
+			if (action == null) {
+				log.warn("Unknown publish action {} found on node {} ({})", actionValue, node.getIdentifier(), node.getPath());
+			}
+			return action;
+		}
+		return null;
+	}
+
+	/**
+	 * Find the unpublished version of a document node.
+	 * @param documentHandle The node which is the document handle.
+	 * @return The node of the unpublished version, or <code>null</code> if
+	 * no unpublished version exists of this document.
+	 * @throws RepositoryException
+	 */
+	public static Node findUnpublishedDocumentVersion(Node documentHandle) throws RepositoryException {
+		NodeIterator children = documentHandle.getNodes();
+		while (children.hasNext()) {
+			Node documentNode = (Node) children.next();
+			//Find unpublished state
+			if (documentNode.isNodeType("hippostdpubwf:document") && documentNode.hasProperty("hippostd:state") && documentNode.getProperty("hippostd:state").getString().equals("unpublished")) {
+				return documentNode;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Publish a document.
+	 * @param session The session used to obtain the workflow.
+	 * @param documentNode The node of the document to publish.
+	 * @param action The publish action.
+	 * @return <code>true</code> if publication was successful, <code>false</code> if it fails. Reason
+	 * for failure will be written into the log.
+	 * @throws RepositoryException
+	 * @throws RemoteException Publication failed.
+	 * @throws WorkflowException Error reading workflow.
+	 */
+	public static boolean publishDocument(Session session, Node documentNode, PublishAction action) throws RepositoryException, RemoteException, WorkflowException {
+		if (action.equals(PublishAction.IGNORE)) {
+			log.warn("Node {} set to ignore, cannot publish", documentNode.getIdentifier());
+			return false;
+		}
+		//Find correct workflow for publishing
+		Workflow workflow = ((HippoWorkspace)session.getWorkspace()).getWorkflowManager().getWorkflow("default", documentNode);
+		if (workflow == null) {
+			log.warn("Found no workflow for category {} and node {} ({})", "default", documentNode.getPath(), documentNode.getIdentifier());
+			return false;
+		}
+		
+		if (workflow instanceof FullReviewedActionsWorkflow) {
+			//Publish document or send publication request
+			if (PublishAction.PUBLISH.equals(action)) {
+				((FullReviewedActionsWorkflow)workflow).publish();
+			} else if (PublishAction.PUBLICATION_REQUEST.equals(action)) {
+				((FullReviewedActionsWorkflow)workflow).requestPublication();
+			} else {
+				log.error("Unexpected Akismet action requested: {}", action);
+			}
+		} else {
+			log.error("Workflow has wrong interface type: {}", Arrays.asList(workflow.getClass().getInterfaces()));
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,497 @@
+package org.pfs.de.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of worker threads processing repository events outside of the event
+ * listener thread.
+ * 
+ * <p>Each worker has its own bounded queue and its own JCR session. Tasks are
+ * assigned to a worker by key (e.g. the identifier of the document handle), so
+ * tasks with the same key are processed in order while tasks for different keys
+ * are processed in parallel. If the queue of a worker is full, {@link #submit(String, Task)}
+ * blocks until space is available.</p>
+ * 
+ * <p>Tasks may leave their changes unsaved (see {@link Task#run(Session)}). The worker
+ * saves these changes together once the batch size is reached, the batch interval has
+ * passed or the worker is idle. If saving a batch fails, the changes are discarded and
+ * the tasks of the batch are run and saved again one by one. A task which saves on its
+ * own also saves the pending changes of the batch; if it fails, the batch is handled
+ * the same way and the task is run again on its own afterwards.</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class EventWorkerPool {
+
+	/**
+	 * A task processed by a worker.
+	 */
+	public static interface Task {
+		/**
+		 * Process the task.
+		 * @param session The session of the worker. The session may contain
+		 * unsaved changes of previous tasks in the current batch.
+		 * @return <code>true</code> if the task left changes which shall be saved
+		 * with the batch, <code>false</code> if the task saved its changes itself
+		 * or made no changes. A task may be run again if saving its batch fails.
+		 * @throws Exception Processing failed. The exception is logged.
+		 */
+		boolean run(Session session) throws Exception;
+	}
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(EventWorkerPool.class);
+
+	/**
+	 * Repository used to create the worker sessions.
+	 */
+	private Repository repository;
+
+	/**
+	 * Credentials for the worker sessions.
+	 */
+	private Credentials credentials;
+
+	/**
+	 * Number of workers. If <code>0</code>, the pool is not started.
+	 */
+	private int workerCount;
+
+	/**
+	 * Capacity of the queue of each worker.
+	 */
+	private int queueCapacity = 1000;
+
+	/**
+	 * Maximum number of tasks whose changes are saved together.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * Maximum time the changes of a task remain unsaved, in milliseconds.
+	 */
+	private long batchInterval = 1000;
+
+	/**
+	 * The workers.
+	 */
+	private volatile Worker[] workers;
+
+	/**
+	 * Number of processed tasks.
+	 */
+	private final AtomicLong processed = new AtomicLong();
+
+	/**
+	 * Number of submissions which had to wait for space in a queue.
+	 */
+	private final AtomicLong blockedSubmissions = new AtomicLong();
+
+	/**
+	 * Number of saved batches.
+	 */
+	private final AtomicLong savedBatches = new AtomicLong();
+
+	/**
+	 * Number of batches which failed and were saved task by task.
+	 */
+	private final AtomicLong failedBatches = new AtomicLong();
+
+	/**
+	 * Time between submission and start of processing of the most recent task, in milliseconds.
+	 */
+	private volatile long lastLag;
+
+	/**
+	 * Maximum time between submission and start of processing, in milliseconds.
+	 */
+	private final AtomicLong maxLag = new AtomicLong();
+
+	/**
+	 * Start the workers. Does nothing if the worker count is <code>0</code>.
+	 */
+	public synchronized void start() {
+		if (workerCount <= 0 || workers != null) {
+			return;
+		}
+		Worker[] newWorkers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			newWorkers[i] = new Worker(i);
+			newWorkers[i].start();
+		}
+		workers = newWorkers;
+		log.info("Started {} event workers", workerCount);
+	}
+
+	/**
+	 * Stop the workers. Queued tasks are processed before the workers terminate.
+	 */
+	public synchronized void stop() {
+		Worker[] currentWorkers = workers;
+		if (currentWorkers == null) {
+			return;
+		}
+		workers = null;
+		for (Worker worker : currentWorkers) {
+			worker.shutdown();
+		}
+		for (Worker worker : currentWorkers) {
+			try {
+				worker.join(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check if the workers are running.
+	 * @return <code>true</code> if tasks can be submitted.
+	 */
+	public boolean isRunning() {
+		return workers != null;
+	}
+
+	/**
+	 * Submit a task. Blocks while the queue of the responsible worker is full.
+	 * @param key The key of the task. Tasks with the same key are processed in order.
+	 * @param task The task.
+	 * @throws InterruptedException Interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException The pool is not running.
+	 */
+	public void submit(String key, Task task) throws InterruptedException {
+		Worker[] currentWorkers = workers;
+		if (currentWorkers == null) {
+			throw new IllegalStateException("Event worker pool is not running");
+		}
+		Worker worker = currentWorkers[(key.hashCode() & Integer.MAX_VALUE) % currentWorkers.length];
+		QueuedTask queued = new QueuedTask(task);
+		if (!worker.queue.offer(queued)) {
+			blockedSubmissions.incrementAndGet();
+			worker.queue.put(queued);
+		}
+	}
+
+	/**
+	 * @param repository the repository to set
+	 */
+	public void setRepository(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @param credentials the credentials to set
+	 */
+	public void setCredentials(Credentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * @param workerCount the number of workers to set. Takes effect on {@link #start()}.
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	/**
+	 * @param queueCapacity the capacity of the queue of each worker. Takes effect on {@link #start()}.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param batchSize the maximum number of tasks whose changes are saved together.
+	 * <code>1</code> saves the changes of each task separately.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param batchInterval the maximum time in milliseconds the changes of a task remain unsaved
+	 */
+	public void setBatchInterval(long batchInterval) {
+		this.batchInterval = batchInterval;
+	}
+
+	/**
+	 * @return the number of saved batches
+	 */
+	public long getSavedBatches() {
+		return savedBatches.get();
+	}
+
+	/**
+	 * @return the number of batches which failed and were saved task by task
+	 */
+	public long getFailedBatches() {
+		return failedBatches.get();
+	}
+
+	/**
+	 * @return the number of queued tasks over all workers
+	 */
+	public int getQueueDepth() {
+		Worker[] currentWorkers = workers;
+		int depth = 0;
+		if (currentWorkers != null) {
+			for (Worker worker : currentWorkers) {
+				depth += worker.queue.size();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * @return the age of the oldest queued task in milliseconds, <code>0</code> if no task is queued
+	 */
+	public long getOldestTaskAge() {
+		Worker[] currentWorkers = workers;
+		long oldest = 0;
+		if (currentWorkers != null) {
+			long now = System.currentTimeMillis();
+			for (Worker worker : currentWorkers) {
+				QueuedTask head = worker.queue.peek();
+				if (head != null) {
+					oldest = Math.max(oldest, now - head.submitted);
+				}
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	 * @return the time between submission and start of processing of the most recent task, in milliseconds
+	 */
+	public long getLastLag() {
+		return lastLag;
+	}
+
+	/**
+	 * @return the maximum time between submission and start of processing, in milliseconds
+	 */
+	public long getMaxLag() {
+		return maxLag.get();
+	}
+
+	/**
+	 * @return the number of processed tasks
+	 */
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * @return the number of submissions which had to wait for space in a queue
+	 */
+	public long getBlockedSubmissions() {
+		return blockedSubmissions.get();
+	}
+
+	/**
+	 * A task with its submission time.
+	 */
+	private static class QueuedTask {
+		final Task task;
+		final long submitted = System.currentTimeMillis();
+
+		QueuedTask(Task task) {
+			this.task = task;
+		}
+	}
+
+	/**
+	 * Worker thread with its own queue and session.
+	 */
+	private class Worker extends Thread {
+
+		final BlockingQueue<QueuedTask> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+		private volatile boolean running = true;
+
+		private Session session;
+
+		/**
+		 * Tasks whose changes are not saved yet.
+		 */
+		private final List<QueuedTask> batch = new ArrayList<>();
+
+		/**
+		 * Time the first task of the current batch was processed.
+		 */
+		private long batchStarted;
+
+		Worker(int index) {
+			super("publication-event-worker-" + index);
+			setDaemon(true);
+		}
+
+		void shutdown() {
+			running = false;
+			interrupt();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running || !queue.isEmpty()) {
+					QueuedTask queued;
+					try {
+						if (batch.isEmpty()) {
+							queued = running ? queue.take() : queue.poll();
+						} else {
+							//Wait for further tasks until the batch is due
+							long wait = batchStarted + batchInterval - System.currentTimeMillis();
+							queued = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+						}
+					} catch (InterruptedException e) {
+						//Shutdown requested, process remaining tasks
+						continue;
+					}
+					if (queued != null) {
+						process(queued);
+					}
+					if (!batch.isEmpty() && (queued == null || batch.size() >= batchSize 
+							|| System.currentTimeMillis() - batchStarted >= batchInterval)) {
+						flush();
+					}
+				}
+				flush();
+			} finally {
+				logout();
+			}
+		}
+
+		private void process(QueuedTask queued) {
+			long lag = System.currentTimeMillis() - queued.submitted;
+			lastLag = lag;
+			long currentMax;
+			while (lag > (currentMax = maxLag.get()) && !maxLag.compareAndSet(currentMax, lag)) {
+				//Retry until maximum is updated
+			}
+			try {
+				Session currentSession = getSession();
+				if (batch.isEmpty()) {
+					currentSession.refresh(false);
+				}
+				if (queued.task.run(currentSession)) {
+					if (batch.isEmpty()) {
+						batchStarted = System.currentTimeMillis();
+					}
+					batch.add(queued);
+				} else if (!currentSession.hasPendingChanges()) {
+					//Task saved the changes of the batch with its own
+					batch.clear();
+				}
+			} catch (Exception e) {
+				if (batch.isEmpty()) {
+					log.error("Processing repository event failed", e);
+					discard();
+				} else {
+					//The task may have failed saving the changes of the batch with its own
+					log.warn("Processing repository event with unsaved changes of " + batch.size()
+							+ " events failed, saving events one by one", e);
+					failedBatches.incrementAndGet();
+					discard();
+					replay();
+					runAlone(queued);
+				}
+			} finally {
+				processed.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Save the changes of the current batch. If saving fails, the tasks are run again
+		 * and saved one by one.
+		 */
+		private void flush() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			try {
+				getSession().save();
+				savedBatches.incrementAndGet();
+				batch.clear();
+			} catch (RepositoryException e) {
+				log.warn("Saving changes of " + batch.size() + " events failed, saving events one by one", e);
+				failedBatches.incrementAndGet();
+				discard();
+				replay();
+			}
+		}
+
+		/**
+		 * Run the tasks of the current batch again, saving after each task.
+		 */
+		private void replay() {
+			List<QueuedTask> tasks = new ArrayList<>(batch);
+			batch.clear();
+			for (QueuedTask task : tasks) {
+				runAlone(task);
+			}
+		}
+
+		/**
+		 * Run a task and save its changes immediately. Expects no unsaved changes.
+		 * @param queued The task.
+		 */
+		private void runAlone(QueuedTask queued) {
+			try {
+				Session currentSession = getSession();
+				if (queued.task.run(currentSession)) {
+					currentSession.save();
+				}
+			} catch (Exception e) {
+				log.error("Processing repository event failed", e);
+				discard();
+			}
+		}
+
+		/**
+		 * Discard all unsaved changes. Creates a new session on the next task
+		 * if the session cannot be refreshed.
+		 */
+		private void discard() {
+			if (session != null) {
+				try {
+					session.refresh(false);
+				} catch (RepositoryException e) {
+					logout();
+				}
+			}
+		}
+
+		private Session getSession() throws RepositoryException {
+			if (session == null) {
+				session = repository.login(credentials);
+			}
+			return session;
+		}
+
+		private void logout() {
+			if (session != null) {
+				session.logout();
+				session = null;
+			}
+		}
+	}
+}
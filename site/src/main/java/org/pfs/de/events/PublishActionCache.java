@@ -0,0 +1,217 @@
+package org.pfs.de.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.pfs.de.events.AutomaticPublicationSubscriber.PublishAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for publish actions resolved on folders, keyed by node path.
+ * 
+ * <p>For each folder the cache holds the action resolved from the folder and
+ * its ancestors, so that the walk to the root node is done only once per
+ * folder. The cache is a JCR {@link EventListener}: entries for a node and its
+ * descendants are removed when the {@link AutomaticPublicationSubscriber#PROP_PUBLISH_ACTION}
+ * property of the node changes, or when the node is moved or removed.</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class PublishActionCache implements EventListener {
+
+	/**
+	 * Log instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(PublishActionCache.class);
+
+	/**
+	 * A resolved action.
+	 */
+	private static class Entry {
+		/**
+		 * The action, or <code>null</code> if no action is configured.
+		 */
+		final PublishAction action;
+		/**
+		 * Depth of the node on which the action is configured, <code>0</code>
+		 * if no action is configured.
+		 */
+		final int sourceDepth;
+
+		Entry(PublishAction action, int sourceDepth) {
+			this.action = action;
+			this.sourceDepth = sourceDepth;
+		}
+	}
+
+	/**
+	 * Resolved actions by node path. Sorted, so that the descendants of a node
+	 * are a contiguous range.
+	 */
+	private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Incremented on each invalidation. Actions resolved while the cache was
+	 * invalidated are not stored.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Number of lookups answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of lookups which required a walk.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Number of ancestor nodes which were not read because of the cache.
+	 */
+	private final AtomicLong walkDepthSaved = new AtomicLong();
+
+	/**
+	 * Get the publish action configured on a node or its ancestors. Same as
+	 * {@link DocumentPublisher#getPublishAction(Session, Node)}.
+	 * @param session The session used to read the nodes.
+	 * @param node The node. The action resolved for the node itself is not cached,
+	 * only the actions resolved for its ancestors.
+	 * @return The configured publish action, or <code>null</code> if no action was configured.
+	 * @throws RepositoryException
+	 */
+	public PublishAction getPublishAction(Session session, Node node) throws RepositoryException {
+		PublishAction action = DocumentPublisher.readPublishAction(node);
+		if (action != null || node.getDepth() == 0) {
+			return action;
+		}
+
+		long currentGeneration = generation.get();
+		List<Node> visited = new ArrayList<>();
+		Node currentNode = node.getParent();
+		Entry resolved = null;
+		while (resolved == null) {
+			Entry cached = entries.get(currentNode.getPath());
+			if (cached != null) {
+				hits.incrementAndGet();
+				walkDepthSaved.addAndGet(currentNode.getDepth() - cached.sourceDepth);
+				resolved = cached;
+				break;
+			}
+			visited.add(currentNode);
+			action = DocumentPublisher.readPublishAction(currentNode);
+			if (action != null) {
+				resolved = new Entry(action, currentNode.getDepth());
+			} else if (currentNode.getDepth() == 0) {
+				resolved = new Entry(null, 0);
+			} else {
+				currentNode = currentNode.getParent();
+			}
+		}
+		if (!visited.isEmpty()) {
+			misses.incrementAndGet();
+			if (currentGeneration == generation.get()) {
+				for (Node visitedNode : visited) {
+					entries.put(visitedNode.getPath(), resolved);
+				}
+			}
+		}
+		return resolved.action;
+	}
+
+	/**
+	 * Remove the entries for a node and its descendants.
+	 * @param path The node path.
+	 */
+	public void invalidate(String path) {
+		generation.incrementAndGet();
+		String prefix = path.endsWith("/") ? path : path + "/";
+		entries.remove(path);
+		//All paths starting with the prefix sort before the prefix with its last character ('/') incremented
+		String end = prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+		entries.subMap(prefix, true, end, false).clear();
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	/**
+	 * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+	 */
+	@Override
+	public void onEvent(EventIterator events) {
+		while (events.hasNext()) {
+			Event event = events.nextEvent();
+			try {
+				String path = event.getPath();
+				switch (event.getType()) {
+				case Event.PROPERTY_ADDED:
+				case Event.PROPERTY_CHANGED:
+				case Event.PROPERTY_REMOVED:
+					int separator = path.lastIndexOf('/');
+					if (path.substring(separator + 1).equals(AutomaticPublicationSubscriber.PROP_PUBLISH_ACTION)) {
+						invalidate(separator == 0 ? "/" : path.substring(0, separator));
+					}
+					break;
+				case Event.NODE_MOVED:
+				case Event.NODE_REMOVED:
+					invalidate(path);
+					if (event.getType() == Event.NODE_MOVED && event.getInfo().containsKey("srcAbsPath")) {
+						invalidate(event.getInfo().get("srcAbsPath").toString());
+					}
+					break;
+				default:
+					break;
+				}
+			} catch (RepositoryException e) {
+				log.warn("Cannot read event, clearing publish action cache", e);
+				clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups which required a walk over uncached ancestors
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of ancestor nodes which were not read because of the cache
+	 */
+	public long getWalkDepthSaved() {
+		return walkDepthSaved.get();
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+}
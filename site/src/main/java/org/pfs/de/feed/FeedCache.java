@@ -0,0 +1,452 @@
+package org.pfs.de.feed;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.hippoecm.repository.api.HippoNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for rendered feeds.
+ *
+ * <p>Feeds are stored as the serialized bytes returned to the client, together
+ * with an entity tag and the time of rendering, so that they can be served and
+ * validated without evaluating the feed documents again (see
+ * {@link FeedCacheFilter}). Only one request renders a missing feed, other
+ * requests for the same feed wait for it.</p>
+ *
+ * <p>The cache is a JCR {@link EventListener}: all feeds are removed when a
+ * document of a feed document type (see {@link #setDocumentTypes(String[])})
+ * is published or unpublished, or when such a document or a folder is moved,
+ * so that each feed is rendered once after a publication. Documents are
+ * unpublished before they are removed, so removals need not be observed.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class FeedCache implements EventListener {
+
+	/**
+	 * A rendered feed.
+	 */
+	public static class Entry {
+
+		/**
+		 * Serialized feed.
+		 */
+		private final byte[] content;
+
+		/**
+		 * Content type of the feed.
+		 */
+		private final String contentType;
+
+		/**
+		 * Entity tag of the feed.
+		 */
+		private final String etag;
+
+		/**
+		 * Time of rendering, in milliseconds rounded down to seconds.
+		 */
+		private final long lastModified;
+
+		Entry(byte[] content, String contentType, String etag, long lastModified) {
+			this.content = content;
+			this.contentType = contentType;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return the serialized feed. Must not be modified.
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * @return the content type of the feed, may be <code>null</code>
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return the entity tag of the feed, including quotes
+		 */
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return the time of rendering in milliseconds, rounded down to seconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * Logging instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(FeedCache.class);
+
+	/**
+	 * Node type of folders.
+	 */
+	private static final String NT_FOLDER = "hippostd:folder";
+
+	/**
+	 * Node type of directories.
+	 */
+	private static final String NT_DIRECTORY = "hippostd:directory";
+
+	/**
+	 * Repository used to create sessions.
+	 */
+	private Repository repository;
+
+	/**
+	 * Credentials for sessions, must give read access to all variants of the documents.
+	 */
+	private Credentials credentials;
+
+	/**
+	 * Node types of the documents contained in or describing the feeds.
+	 */
+	private String[] documentTypes = { "website:blogdocument", "website:commentdocument", "feed:rss20descriptor" };
+
+	/**
+	 * Maximum number of feeds.
+	 */
+	private int maxEntries = 50;
+
+	/**
+	 * Maximum time in milliseconds a request waits for a feed rendered by another request.
+	 */
+	private long waitTime = 10000;
+
+	/**
+	 * Feeds being rendered, by request URL. The latch is released when rendering is finished.
+	 */
+	private final ConcurrentMap<String, CountDownLatch> rendering = new ConcurrentHashMap<>();
+
+	/**
+	 * Feeds by request URL, least recently used first.
+	 */
+	private final Map<String, Entry> feeds = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * Incremented on each invalidation. Feeds rendered while the cache was
+	 * invalidated are not stored.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Number of requests answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of requests for feeds not in the cache.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Number of requests answered with <code>304 Not Modified</code>.
+	 */
+	private final AtomicLong notModified = new AtomicLong();
+
+	/**
+	 * Get a feed.
+	 * @param key The request URL of the feed.
+	 * @return The feed, or <code>null</code> if it is not cached.
+	 */
+	public Entry get(String key) {
+		Entry entry;
+		synchronized (feeds) {
+			entry = feeds.get(key);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Get a feed without counting the request, e.g. after waiting for another
+	 * request to render it.
+	 * @param key The request URL of the feed.
+	 * @return The feed, or <code>null</code> if it is not cached.
+	 */
+	public Entry peek(String key) {
+		synchronized (feeds) {
+			return feeds.get(key);
+		}
+	}
+
+	/**
+	 * Lock a feed for rendering. If another request is rendering the feed, wait
+	 * until it is finished, so that the feed can be taken from the cache.
+	 * @param key The request URL of the feed.
+	 * @return <code>true</code> if the lock was acquired and must be released
+	 * with {@link #unlock(String)}, <code>false</code> if the wait time has elapsed.
+	 * @throws InterruptedException
+	 */
+	public boolean lock(String key) throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		long deadline = System.currentTimeMillis() + waitTime;
+		while (true) {
+			CountDownLatch pending = rendering.putIfAbsent(key, latch);
+			if (pending == null) {
+				return true;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0 || !pending.await(remaining, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Release the lock of a feed acquired with {@link #lock(String)}.
+	 * @param key The request URL of the feed.
+	 */
+	public void unlock(String key) {
+		CountDownLatch latch = rendering.remove(key);
+		if (latch != null) {
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Get the current generation, to be passed to {@link #put(String, byte[], String, long)}
+	 * after the feed has been rendered.
+	 * @return The generation.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Store a feed, unless the cache has been invalidated since rendering started.
+	 * @param key The request URL of the feed.
+	 * @param content The serialized feed.
+	 * @param contentType The content type of the feed.
+	 * @param renderedGeneration The generation before rendering started.
+	 * @return The new entry.
+	 */
+	public Entry put(String key, byte[] content, String contentType, long renderedGeneration) {
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(content, contentType, createEtag(content), now - now % 1000);
+		synchronized (feeds) {
+			if (renderedGeneration == generation.get()) {
+				feeds.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Count a request answered with <code>304 Not Modified</code>.
+	 */
+	void countNotModified() {
+		notModified.incrementAndGet();
+	}
+
+	/**
+	 * Remove all feeds.
+	 */
+	public void clear() {
+		synchronized (feeds) {
+			generation.incrementAndGet();
+			feeds.clear();
+		}
+	}
+
+	/**
+	 * Remove all feeds if a feed document was published, unpublished or moved.
+	 * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+	 */
+	@Override
+	public void onEvent(EventIterator events) {
+		Session session = null;
+		try {
+			while (events.hasNext()) {
+				Event event = events.nextEvent();
+				String path = event.getPath();
+				String nodePath;
+				if (event.getType() == Event.NODE_MOVED) {
+					nodePath = path;
+				} else if (path.endsWith("/hippo:availability")) {
+					nodePath = path.substring(0, path.lastIndexOf('/'));
+				} else {
+					continue;
+				}
+				if (session == null) {
+					session = repository.login(credentials);
+				}
+				if (isFeedContent(session, nodePath)) {
+					clear();
+					return;
+				}
+			}
+		} catch (RepositoryException e) {
+			log.warn("Cannot read event, clearing feeds", e);
+			clear();
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Check whether a changed node may appear in a feed.
+	 * @param session The session used to read the node.
+	 * @param path The path of the node.
+	 * @return <code>true</code> if the node is a folder, or a document or
+	 * handle of a feed document type.
+	 * @throws RepositoryException
+	 */
+	private boolean isFeedContent(Session session, String path) throws RepositoryException {
+		if (!session.nodeExists(path)) {
+			return false;
+		}
+		Node node = session.getNode(path);
+		if (node.isNodeType(HippoNodeType.NT_HANDLE)) {
+			NodeIterator variants = node.getNodes(node.getName());
+			while (variants.hasNext()) {
+				if (isFeedDocument(variants.nextNode())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return isFeedDocument(node) || node.isNodeType(NT_FOLDER) || node.isNodeType(NT_DIRECTORY);
+	}
+
+	/**
+	 * Check the type of a document.
+	 * @param document The document.
+	 * @return <code>true</code> if the document is of a feed document type.
+	 * @throws RepositoryException
+	 */
+	private boolean isFeedDocument(Node document) throws RepositoryException {
+		for (String documentType : documentTypes) {
+			if (document.isNodeType(documentType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the entity tag of a feed.
+	 * @param content The serialized feed.
+	 * @return The entity tag.
+	 */
+	private static String createEtag(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			return '"' + new BigInteger(1, digest).toString(16) + '"';
+		} catch (NoSuchAlgorithmException e) {
+			return '"' + Integer.toHexString(Arrays.hashCode(content)) + '"';
+		}
+	}
+
+	/**
+	 * @param repository the repository used to create sessions
+	 */
+	public void setRepository(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @param credentials the credentials for sessions, must give read access to all variants of the documents
+	 */
+	public void setCredentials(Credentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * @param documentTypes the node types of the documents contained in or describing the feeds
+	 */
+	public void setDocumentTypes(String[] documentTypes) {
+		this.documentTypes = documentTypes;
+	}
+
+	/**
+	 * @param waitTime the maximum time in milliseconds a request waits for a feed rendered by another request
+	 */
+	public void setWaitTime(long waitTime) {
+		this.waitTime = waitTime;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of feeds
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the number of cached feeds
+	 */
+	public int getSize() {
+		synchronized (feeds) {
+			return feeds.size();
+		}
+	}
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of requests for feeds not in the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of requests answered with <code>304 Not Modified</code>
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+}
@@ -0,0 +1,353 @@
+package org.pfs.de.feed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.hippoecm.hst.site.HstServices;
+
+/**
+ * Serves feeds from the {@link FeedCache}.
+ *
+ * <p>GET and HEAD requests whose path matches the <code>pathPattern</code>
+ * init parameter (default: feeds of the <code>feed</code> sitemap item) are
+ * answered with the cached bytes of the feed. Requests with a matching
+ * <code>If-None-Match</code> or <code>If-Modified-Since</code> header are
+ * answered with <code>304 Not Modified</code>. Feeds not in the cache are
+ * rendered by the HST and stored if rendering succeeded; concurrent requests
+ * for the same feed wait for the first one. Paths matching the
+ * <code>excludePattern</code> init parameter (default: preview) are not
+ * cached.</p>
+ *
+ * <p>Feeds are cached by URL without the query string. Only the request
+ * parameters listed in the comma separated <code>cachedParameters</code> init
+ * parameter (default: none) are part of the cache key; requests with any
+ * other parameter are passed on without the cache, so that random parameters
+ * cannot fill the cache or bypass the rendering of a feed by a single
+ * request.</p>
+ *
+ * <p>The filter must be mapped before the <code>HstFilter</code>.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class FeedCacheFilter implements Filter {
+
+	/**
+	 * Paths of cached feeds.
+	 */
+	private Pattern pathPattern = Pattern.compile(".*/feed/.+\\.xml");
+
+	/**
+	 * Paths which are not cached.
+	 */
+	private Pattern excludePattern = Pattern.compile(".*/(preview|_cmsinternal)/.*");
+
+	/**
+	 * Request parameters which are part of the cache key.
+	 */
+	private Set<String> cachedParameters = Collections.emptySet();
+
+	/**
+	 * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+	 */
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		if (filterConfig.getInitParameter("pathPattern") != null) {
+			pathPattern = Pattern.compile(filterConfig.getInitParameter("pathPattern"));
+		}
+		if (filterConfig.getInitParameter("excludePattern") != null) {
+			excludePattern = Pattern.compile(filterConfig.getInitParameter("excludePattern"));
+		}
+		String parameters = filterConfig.getInitParameter("cachedParameters");
+		if (parameters != null && parameters.trim().length() > 0) {
+			cachedParameters = new HashSet<>(Arrays.asList(parameters.trim().split("\\s*,\\s*")));
+		}
+	}
+
+	/**
+	 * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
+	 */
+	@Override
+	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest) req;
+		HttpServletResponse response = (HttpServletResponse) res;
+		FeedCache cache = getCache(request);
+		String key = cache != null ? getKey(request) : null;
+		if (key == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		FeedCache.Entry entry = cache.get(key);
+		if (entry == null) {
+			//Only one request renders the feed, the others take it from the cache
+			boolean locked;
+			try {
+				locked = cache.lock(key);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				locked = false;
+			}
+			try {
+				entry = cache.peek(key);
+				if (entry == null) {
+					//Render the feed and keep the output
+					long generation = cache.getGeneration();
+					CapturingResponse capture = new CapturingResponse(response);
+					chain.doFilter(request, capture);
+					if (capture.status != HttpServletResponse.SC_OK || capture.isCommitted()) {
+						capture.flush();
+						return;
+					}
+					entry = cache.put(key, capture.getContent(), capture.getContentType(), generation);
+				}
+			} finally {
+				if (locked) {
+					cache.unlock(key);
+				}
+			}
+		}
+
+		response.setHeader("ETag", entry.getEtag());
+		response.setDateHeader("Last-Modified", entry.getLastModified());
+		if (isNotModified(request, entry)) {
+			cache.countNotModified();
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		if (entry.getContentType() != null) {
+			response.setContentType(entry.getContentType());
+		}
+		response.setContentLength(entry.getContent().length);
+		if (!request.getMethod().equals("HEAD")) {
+			response.getOutputStream().write(entry.getContent());
+		}
+	}
+
+	/**
+	 * Get the cache for a request.
+	 * @param request The request.
+	 * @return The cache, or <code>null</code> if the request is not cached.
+	 */
+	private FeedCache getCache(HttpServletRequest request) {
+		if (!request.getMethod().equals("GET") && !request.getMethod().equals("HEAD")) {
+			return null;
+		}
+		String path = request.getRequestURI();
+		if (!pathPattern.matcher(path).matches() || excludePattern.matcher(path).matches()) {
+			return null;
+		}
+		if (!HstServices.isAvailable()) {
+			return null;
+		}
+		return HstServices.getComponentManager().getComponent(FeedCache.class.getName());
+	}
+
+	/**
+	 * Get the cache key of a request: the URL without the query string and the
+	 * cached parameters in order of their names.
+	 * @param request The request.
+	 * @return The key, or <code>null</code> if the request has parameters which
+	 * are not cached.
+	 */
+	private String getKey(HttpServletRequest request) {
+		StringBuilder key = new StringBuilder(request.getRequestURL());
+		if (request.getQueryString() == null) {
+			return key.toString();
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, String[]> parameters = new TreeMap<String, String[]>(request.getParameterMap());
+		char separator = '?';
+		for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			if (!cachedParameters.contains(parameter.getKey())) {
+				return null;
+			}
+			for (String value : parameter.getValue()) {
+				key.append(separator).append(parameter.getKey()).append('=').append(value);
+				separator = '&';
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Check the conditional headers of a request.
+	 * @param request The request.
+	 * @param entry The cached feed.
+	 * @return <code>true</code> if the client has the current version of the feed.
+	 */
+	private boolean isNotModified(HttpServletRequest request, FeedCache.Entry entry) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String etag : ifNoneMatch.split(",")) {
+				String trimmed = etag.trim();
+				if (trimmed.equals("*") || trimmed.equals(entry.getEtag()) || trimmed.equals("W/" + entry.getEtag())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince >= entry.getLastModified();
+		} catch (IllegalArgumentException e) {
+			//Invalid date
+			return false;
+		}
+	}
+
+	/**
+	 * @see javax.servlet.Filter#destroy()
+	 */
+	@Override
+	public void destroy() {
+		//Nothing to release
+	}
+
+	/**
+	 * Response keeping the output in memory.
+	 */
+	private static class CapturingResponse extends HttpServletResponseWrapper {
+
+		/**
+		 * Output of the response.
+		 */
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		/**
+		 * Stream writing to {@link #content}.
+		 */
+		private ServletOutputStream outputStream;
+
+		/**
+		 * Writer writing to {@link #content}.
+		 */
+		private PrintWriter writer;
+
+		/**
+		 * Status of the response.
+		 */
+		int status = SC_OK;
+
+		CapturingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+			super.setStatus(sc);
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public void setStatus(int sc, String sm) {
+			status = sc;
+			super.setStatus(sc, sm);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			status = sc;
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			status = sc;
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			status = SC_FOUND;
+			super.sendRedirect(location);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() has already been called");
+			}
+			if (outputStream == null) {
+				outputStream = new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						content.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						content.write(b, off, len);
+					}
+				};
+			}
+			return outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (outputStream != null) {
+				throw new IllegalStateException("getOutputStream() has already been called");
+			}
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(content, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			//Output is written when the response is complete
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			//Set with the captured content
+		}
+
+		/**
+		 * @return the output of the response
+		 */
+		byte[] getContent() {
+			if (writer != null) {
+				writer.flush();
+			}
+			return content.toByteArray();
+		}
+
+		/**
+		 * Write the output to the wrapped response.
+		 * @throws IOException
+		 */
+		void flush() throws IOException {
+			byte[] bytes = getContent();
+			if (bytes.length > 0) {
+				getResponse().getOutputStream().write(bytes);
+			}
+		}
+	}
+}
@@ -4,12 +4,11 @@
  */
 package org.pfs.de.services;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Calendar;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.servlet.http.HttpServletRequest;
 
 import org.hippoecm.hst.configuration.hosting.Mount;
@@ -20,22 +19,21 @@ import org.hippoecm.hst.content.beans.manager.ObjectBeanManagerImpl;
 import org.hippoecm.hst.content.beans.manager.workflow.WorkflowPersistenceManager;
 import org.hippoecm.hst.content.beans.query.HstQuery;
 import org.hippoecm.hst.content.beans.query.HstQueryManager;
-import org.hippoecm.hst.content.beans.query.HstQueryResult;
 import org.hippoecm.hst.content.beans.query.exceptions.QueryException;
 import org.hippoecm.hst.content.beans.query.filter.Filter;
-import org.hippoecm.hst.content.beans.standard.HippoBeanIterator;
 import org.hippoecm.hst.content.beans.standard.HippoFolderBean;
 import org.hippoecm.hst.core.linking.HstLink;
 import org.hippoecm.hst.core.request.HstRequestContext;
 import org.hippoecm.hst.jaxrs.services.AbstractResource;
 import org.hippoecm.hst.util.PathUtils;
-import org.pfs.de.akismet.AkismetCheckResult;
-import org.pfs.de.akismet.AkismetClient;
 import org.pfs.de.akismet.AkismetCommentData;
-import org.pfs.de.akismet.AkismetConfiguration;
-import org.pfs.de.akismet.AkismetException;
+import org.pfs.de.akismet.AkismetConfigurationCache;
+import org.pfs.de.akismet.filter.SpamFilter;
+import org.pfs.de.akismet.rest.AkismetApi;
+import org.pfs.de.akismet.rest.AkismetRestClient;
 import org.pfs.de.beans.BaseDocument;
 import org.pfs.de.beans.CommentDocument;
+import org.pfs.de.beans.LinkCache;
 import org.pfs.de.events.AutomaticPublicationSubscriber;
 import org.pfs.de.events.AutomaticPublicationSubscriber.PublishAction;
 import org.pfs.de.services.model.BaseDocumentRepresentation;
@@ -75,6 +73,189 @@ public abstract class BaseResource extends AbstractResource {
 	 */
 	private static Logger log = LoggerFactory.getLogger(BaseResource.class);
 	
+	/**
+	 * Akismet API used if none is configured. Shared by all resources so that
+	 * the HTTP transport is not recreated for every request.
+	 */
+	private static final AkismetApi DEFAULT_AKISMET_API = new AkismetRestClient();
+	
+	/**
+	 * The Akismet API used for spam checks.
+	 */
+	private AkismetApi akismetApi;
+	
+	/**
+	 * Get the Akismet API used for spam checks.
+	 * @return The configured API, or a shared default instance if none
+	 * is configured.
+	 */
+	public AkismetApi getAkismetApi() {
+		if (akismetApi == null) {
+			return DEFAULT_AKISMET_API;
+		}
+		return akismetApi;
+	}
+	
+	/**
+	 * Set the Akismet API used for spam checks.
+	 * @param akismetApi The API instance. The instance is shared between
+	 * requests and must be thread safe.
+	 */
+	public void setAkismetApi(AkismetApi akismetApi) {
+		this.akismetApi = akismetApi;
+	}
+	
+	/**
+	 * Publish action for comments which could not be checked because the
+	 * Akismet service is unavailable.
+	 */
+	private PublishAction akismetFallbackAction = PublishAction.IGNORE;
+	
+	/**
+	 * Get the publish action for comments which could not be checked because
+	 * the Akismet service is unavailable.
+	 * @return The publish action.
+	 */
+	public PublishAction getAkismetFallbackAction() {
+		return akismetFallbackAction;
+	}
+	
+	/**
+	 * Set the publish action for comments which could not be checked because
+	 * the Akismet service is unavailable.
+	 * @param akismetFallbackAction Name of the publish action. Invalid names
+	 * are ignored.
+	 */
+	public void setAkismetFallbackAction(String akismetFallbackAction) {
+		PublishAction action = PublishAction.getAction(akismetFallbackAction);
+		if (action == null) {
+			log.error("Invalid Akismet fallback action: {} ; defaulting to ignore", akismetFallbackAction);
+			action = PublishAction.IGNORE;
+		}
+		this.akismetFallbackAction = action;
+	}
+	
+	/**
+	 * Cache for Akismet configurations.
+	 */
+	private AkismetConfigurationCache akismetConfigurationCache;
+	
+	/**
+	 * Get the cache for Akismet configurations.
+	 * @return The cache, or <code>null</code> if none is configured.
+	 */
+	public AkismetConfigurationCache getAkismetConfigurationCache() {
+		return akismetConfigurationCache;
+	}
+	
+	/**
+	 * Set the cache for Akismet configurations.
+	 * @param akismetConfigurationCache The cache. Must be registered for
+	 * repository events to be cleared on configuration changes.
+	 */
+	public void setAkismetConfigurationCache(AkismetConfigurationCache akismetConfigurationCache) {
+		this.akismetConfigurationCache = akismetConfigurationCache;
+	}
+	
+	/**
+	 * Local checks before Akismet is called.
+	 */
+	private SpamFilter spamFilter;
+	
+	/**
+	 * Get the local checks before Akismet is called.
+	 * @return The checks, or <code>null</code> if none are configured.
+	 */
+	public SpamFilter getSpamFilter() {
+		return spamFilter;
+	}
+	
+	/**
+	 * Set the local checks before Akismet is called. Comments identified as
+	 * spam or ham by the checks are not sent to Akismet.
+	 * @param spamFilter The checks, usually a
+	 * {@link org.pfs.de.akismet.filter.SpamFilterChain SpamFilterChain}.
+	 */
+	public void setSpamFilter(SpamFilter spamFilter) {
+		this.spamFilter = spamFilter;
+	}
+	
+	/**
+	 * Index of the comments of each document.
+	 */
+	private CommentIndex commentIndex;
+	
+	/**
+	 * Get the index of the comments of each document.
+	 * @return The index, or <code>null</code> if none is configured.
+	 */
+	public CommentIndex getCommentIndex() {
+		return commentIndex;
+	}
+	
+	/**
+	 * Set the index of the comments of each document. The index is used
+	 * to find the comments of a document in the live site.
+	 * @param commentIndex The index.
+	 */
+	public void setCommentIndex(CommentIndex commentIndex) {
+		this.commentIndex = commentIndex;
+	}
+	
+	/**
+	 * Cache for the home page URLs of the mounts.
+	 */
+	private LinkCache linkCache;
+	
+	/**
+	 * Get the cache for the home page URLs of the mounts.
+	 * @return The cache, or <code>null</code> if none is configured.
+	 */
+	public LinkCache getLinkCache() {
+		return linkCache;
+	}
+	
+	/**
+	 * Set the cache for the home page URLs of the mounts.
+	 * @param linkCache The cache. Must be registered for repository events
+	 * to be cleared on HST configuration changes.
+	 */
+	public void setLinkCache(LinkCache linkCache) {
+		this.linkCache = linkCache;
+	}
+	
+	/**
+	 * Queue for spam checks in the background.
+	 */
+	private SpamCheckQueue spamCheckQueue;
+	
+	/**
+	 * Get the queue for spam checks in the background.
+	 * @return The queue, or <code>null</code> if none is configured.
+	 */
+	public SpamCheckQueue getSpamCheckQueue() {
+		return spamCheckQueue;
+	}
+	
+	/**
+	 * Set the queue for spam checks in the background. If the queue is
+	 * enabled, new documents are checked in the background instead of
+	 * during the request.
+	 * @param spamCheckQueue The queue.
+	 */
+	public void setSpamCheckQueue(SpamCheckQueue spamCheckQueue) {
+		this.spamCheckQueue = spamCheckQueue;
+	}
+	
+	/**
+	 * Check if spam checks are performed in the background.
+	 * @return <code>true</code> if new documents are saved before the spam
+	 * check is performed.
+	 */
+	protected boolean isAsyncSpamCheck() {
+		return spamCheckQueue != null && spamCheckQueue.isEnabled();
+	}
+	
     /**
      * Retrieve a document by its ID.
      *
@@ -106,26 +287,54 @@ public abstract class BaseResource extends AbstractResource {
     }
 
     /**
-     * Get comments by reference to a document.
+     * Get the entry of a document in the comment index.
+     * @param servletRequest The request object.
+     * @param documentId The UUID of the document.
+     * @return The entry, or <code>null</code> if the comment index is not
+     * available or not used for the request (e.g. in preview).
+     * @throws RepositoryException An error occurred while searching the comments.
+     */
+    protected CommentIndex.Entry getCommentIndexEntry(HttpServletRequest servletRequest, String documentId) throws RepositoryException {
+        if (commentIndex == null || documentId == null || getRequestContext(servletRequest).isPreview()) {
+            return null;
+        }
+        return commentIndex.get(documentId);
+    }
+
+    /**
+     * Get comments by reference to a document, newest first in the order of
+     * {@link CommentCursor}. In the live site, the comments are read from the
+     * {@link #getCommentIndex() comment index} if available, otherwise the
+     * cursor and limit are passed to the search. The comment beans are read
+     * while iterating.
      * @param servletRequest The request object.
      * @param documentId The UUID of the document to which the comments should
      * be referring.
+     * @param after The position of the last comment of the previous page. Set
+     * to <code>null</code> to start with the newest comment.
      * @param limit The maximum number of comments to be returned. Set to
      * <code>0</code> to switch off the limit.
-     * @return A list of comments which refer to the document which is
-     * identified by the UUID. This list may be empty, and it may be 
-     * non-mutable.
+     * @return An iterator over the comments which refer to the document, or
+     * <code>null</code> if the document UUID is <code>null</code>.
      * @throws RepositoryException An error occurred while accessing the 
      * repository.
      * @throws QueryException An error occurred while executing the search.
      */
-    protected List<CommentDocument> getCommentsByRef(HttpServletRequest servletRequest, String documentId, int limit) throws RepositoryException, QueryException {
+    protected CommentIterator getCommentIterator(HttpServletRequest servletRequest, String documentId, CommentCursor after, int limit) throws RepositoryException, QueryException {
         if (documentId == null) {
             return null;
         }
         
-        //Get the references to the context and the query manager
         HstRequestContext requestContext = getRequestContext(servletRequest);
+        if (commentIndex != null && !requestContext.isPreview()) {
+            CommentIndex.Entry entry = commentIndex.get(documentId);
+            int from = entry.indexAfter(after);
+            int to = limit > 0 ? Math.min(from + limit, entry.getCount()) : entry.getCount();
+            return CommentIterator.of(getObjectBeanManager(requestContext), 
+                    entry.getCommentIds().subList(from, to), entry.getPositions().subList(from, to));
+        }
+        
+        //Get the references to the query manager
         HstQueryManager hstQueryManager = getHstQueryManager(requestContext.getSession(), requestContext);
 
         //Determine search base
@@ -137,31 +346,26 @@ public abstract class BaseResource extends AbstractResource {
 		HstQuery hstQuery = hstQueryManager.createQuery(mountContentNode, CommentDocument.class);
         Filter filter = hstQuery.createFilter();
         filter.addEqualTo("website:reference/@hippo:docbase", documentId.toLowerCase());
+        if (after != null) {
+            //Comments created before the cursor, or at the same time with a lower identifier
+            Calendar created = Calendar.getInstance();
+            created.setTimeInMillis(after.getCreated());
+            Filter older = hstQuery.createFilter();
+            older.addLessThan("hippostdpubwf:creationDate", created);
+            Filter sameTime = hstQuery.createFilter();
+            sameTime.addEqualTo("hippostdpubwf:creationDate", created);
+            sameTime.addLessThan("jcr:uuid", after.getId());
+            older.addOrFilter(sameTime);
+            filter.addAndFilter(older);
+        }
         hstQuery.setFilter(filter);
+        hstQuery.addOrderByDescending("hippostdpubwf:creationDate");
+        hstQuery.addOrderByDescending("jcr:uuid");
         if (limit > 0) {
             hstQuery.setLimit(limit);
         }
 
-        HstQueryResult result = hstQuery.execute();
-        
-        if (result.getSize() == 0) {
-            return Collections.emptyList();
-        }
-        
-        //Read results
-        List<CommentDocument> comments = new ArrayList<CommentDocument>(result.getSize());
-        HippoBeanIterator iterator = result.getHippoBeans();
-
-        while (iterator.hasNext()) {
-            //Get all incoming comment links
-            CommentDocument comment = (CommentDocument) iterator.nextHippoBean();
-
-            if (comment != null) {
-                comments.add(comment);
-            }
-        }
-
-        return comments;
+        return CommentIterator.of(hstQuery.execute());
     }
 
     /**
@@ -226,6 +430,9 @@ public abstract class BaseResource extends AbstractResource {
      * Create a new document. This method <em>must</em> be called from a
      * method annotated with {@link Persistable @Persistable} to ensure that
      * a writable session is used.
+     * <p>If {@link #isAsyncSpamCheck() background spam checks} are enabled,
+     * the document is saved unpublished and the spam check is queued; the
+     * document is published by the queue after the check.</p>
      * @param <T> The type of the document which is created. This type must
      * be annotated with {@link Node @Node(jcrType="type")}, where type is the
      * same type as set in the parameter <code>documentType</code>.
@@ -268,14 +475,26 @@ public abstract class BaseResource extends AbstractResource {
         persistanceManager.update(document);
         
         //Check for spam
+        boolean queueSpamCheck = false;
         if (akismetCallback != null) {
-        	boolean continueProcessing = checkForSpam(request, document, akismetCallback.convert(request, document, representation));
-        	if (!continueProcessing) {
-        		return null;
+        	AkismetCommentData commentData = akismetCallback.convert(request, document, representation);
+        	if (isAsyncSpamCheck()) {
+        		completeCommentData(request, document, commentData);
+        		Node handle = requestContext.getSession().getNodeByIdentifier(document.getCanonicalHandleUUID());
+        		getSpamCheckQueue().prepare(document.getNode(), handle, commentData);
+        		queueSpamCheck = true;
+        	} else {
+        		boolean continueProcessing = checkForSpam(request, document, commentData);
+        		if (!continueProcessing) {
+        			return null;
+        		}
         	}
         }
         
         persistanceManager.save();
+        if (queueSpamCheck) {
+        	getSpamCheckQueue().submit(document.getIdentifier());
+        }
 
         //Read back complete bean instance for return
         return (T) persistanceManager.getObject(beanPath);
@@ -283,7 +502,8 @@ public abstract class BaseResource extends AbstractResource {
 
     /**
      * Check a comment for spam. The document will be marked with the correct action. If an error occurred,
-     * it will be marked as {@link PublishAction#IGNORE ignore}.
+     * it will be marked as {@link PublishAction#IGNORE ignore}. If the Akismet service is unavailable, it
+     * will be marked with the {@link #getAkismetFallbackAction() fallback action}.
      * @param request HTTP request.
      * @param document The checked document.
      * @param commentData Data of the comment.
@@ -292,105 +512,64 @@ public abstract class BaseResource extends AbstractResource {
      * @throws RepositoryException
      */
     protected boolean checkForSpam(HttpServletRequest request, BaseDocument document, AkismetCommentData commentData) throws RepositoryException {
-    	//Read configuration from repository
-    	AkismetConfiguration configuration = AkismetConfiguration.readConfiguration(getRequestContext(request).getSession(), document.getNode());
-    	if (!configuration.isComplete()) {
-    		//Incomplete configuration
-    		log.warn("Akismet configuration is incomplete for document {}", commentData.getIdentifier());
+    	completeCommentData(request, document, commentData);
+    	
+    	Session session = getRequestContext(request).getSession();
+    	//Desired action is set on the document handle (parent node of current document)
+    	Node handle = session.getNodeByIdentifier(document.getCanonicalHandleUUID());
+    	switch (new SpamChecker(getAkismetApi(), getAkismetConfigurationCache(), getSpamFilter()).check(session, document.getNode(), handle, commentData)) {
+    	case REJECT:
+    		return false;
+    	case FAILED:
+    		AutomaticPublicationSubscriber.setAutoPublishAction(handle, PublishAction.IGNORE);
     		return true;
-    	}
-    	PublishAction hamAction = PublishAction.getAction(configuration.hamAction);
-    	if (hamAction == null) {
-    		log.error("Invalid Akismet ham actions: {} ", configuration.hamAction);
+    	case UNAVAILABLE:
+    		AutomaticPublicationSubscriber.setAutoPublishAction(handle, getAkismetFallbackAction());
+    		return true;
+    	default:
+    		//Continue processing
     		return true;
     	}
-    	
-    	//Complete comment data
+    }
+    
+    /**
+     * Complete the comment data with information from the request.
+     * @param request HTTP request.
+     * @param document The checked document.
+     * @param commentData Data of the comment.
+     */
+    protected void completeCommentData(HttpServletRequest request, BaseDocument document, AkismetCommentData commentData) {
     	commentData.setIdentifier(document.getIdentifier());
     	commentData.setUserIp(request.getRemoteAddr());
     	commentData.setUserAgent(request.getHeader(HttpHeaders.USER_AGENT));
     	commentData.setReferrer(request.getHeader(HttpHeaders.REFERER));
     	
-    	//Create client and check key
-    	try {
-    		PublishAction action;
-    		//Current context is REST API, links must be created relative to the main site (root mount)
-    		Mount rootMount = getRequestContext(request).getResolvedMount().getMount().getParent();
-    		//Site home page
-    		HstLink homepageLink = getRequestContext(request).getHstLinkCreator().create(rootMount.getHomePage(), rootMount);
-			AkismetClient client = new AkismetClient(configuration.apiKey, homepageLink.toUrlForm(getRequestContext(request), true));
-			if (!client.checkApiKey()) {
-				log.error("Akismet API key is incorrect");
-				action = PublishAction.IGNORE;
-			} else {
-				//Check comment
-				AkismetCheckResult result = client.checkComment(commentData);
-				result.save(document.getNode());
-				if (result.isError()) {
-					log.error("Akismet spam check failed for comment {}", commentData.getIdentifier());
-					if (log.isDebugEnabled() && result.getAdditionalInformation().containsKey(AkismetCheckResult.INFO_DEBUG)) {
-						//Write additional debug information
-						log.debug("Error from Akismet server {}: {}", 
-								result.getAdditionalInformation().get(AkismetCheckResult.INFO_SERVER),
-								result.getAdditionalInformation().get(AkismetCheckResult.INFO_DEBUG));
-					}
-					//Continue processing
-					return true;
-				}
-				
-				//Process result
-				switch (result.getResult()) {
-				case HAM:
-					action = hamAction;
-					break;
-				case SPAM:
-				{
-					if (configuration.spamAction == null) {
-						//Default to ignore if not configured
-						action = PublishAction.IGNORE;
-					} else if (configuration.spamAction.equals(AkismetConfiguration.PROP_VALUE_SPAM_ACTION_REJECT)) {
-						//Reject spam comment
-						return false;
-					} else {
-						PublishAction spamAction = PublishAction.getAction(configuration.spamAction);
-						if (spamAction == null) {
-							log.error("Invalid Akismet spam action: {} ; defaulting to ignore", configuration.hamAction);
-							action =  PublishAction.IGNORE;
-						} else if (AkismetConfiguration.PROP_VALUE_SPAM_ACTION_RECOMMEND.equals(spamAction)) {
-							//Follow recommendation from Akismet service
-							String akismetRecommendation = result.getAdditionalInformation().get(AkismetCheckResult.INFO_RECOMMENDATION);
-							if (AkismetCheckResult.INFO_RECOMMENDATION_DISCARD.equals(akismetRecommendation)) {
-								//Discard directly
-								return false;
-							} else {
-								//Do not publish comment
-								action = PublishAction.IGNORE;
-							}
-						} else {
-							action = spamAction;
-						}
-					}
-					break;
-				}
-				case INVALID:
-					//We should never reach this block, because errors are handled before (in block if (result.isError())...)
-					// However, handle this situation gracefully in case of future changes influencing this behavior
-					log.error("Akismet spam check failed for comment {}", commentData.getIdentifier());
-					action = PublishAction.IGNORE;
-				default:
-					log.error("Akismet spam check returned unknown result type {}", result.getResult());
-					action = PublishAction.IGNORE;
-				}
-			}
-			//Set desired action on the document handle (parent node of current document)
-			AutomaticPublicationSubscriber.setAutoPublishAction(getRequestContext(request).getSession().getNodeByIdentifier(document.getCanonicalHandleUUID()), action);
-			
-			return true;
-			
-		} catch (AkismetException e) {
-			log.error("Akismet check failed", e);
-			AutomaticPublicationSubscriber.setAutoPublishAction(document.getNode(), PublishAction.IGNORE);
-			return true;
-		}
+    	if (commentData.getBlogUrl() == null) {
+    		commentData.setBlogUrl(getHomePageUrl(request));
+    	}
+    }
+    
+    /**
+     * Get the fully qualified URL of the site home page. Current context is
+     * the REST API, so the link is created relative to the main site (root
+     * mount). The URL is kept in the {@link #getLinkCache() link cache}, if
+     * available.
+     * @param request HTTP request.
+     * @return The URL of the home page.
+     */
+    protected String getHomePageUrl(HttpServletRequest request) {
+    	HstRequestContext requestContext = getRequestContext(request);
+    	Mount rootMount = requestContext.getResolvedMount().getMount().getParent();
+    	String key = LinkCache.createHomePageKey(rootMount.getIdentifier(), LinkCache.getOrigin(request));
+    	String url = linkCache == null ? null : linkCache.get(key);
+    	if (url == null) {
+    		long generation = linkCache == null ? 0 : linkCache.getGeneration();
+    		HstLink homepageLink = requestContext.getHstLinkCreator().create(rootMount.getHomePage(), rootMount);
+    		url = homepageLink.toUrlForm(requestContext, true);
+    		if (linkCache != null) {
+    			linkCache.put(key, null, url, generation);
+    		}
+    	}
+    	return url;
     }
 }
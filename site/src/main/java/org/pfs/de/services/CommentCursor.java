@@ -0,0 +1,123 @@
+package org.pfs.de.services;
+
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pfs.de.beans.CommentDocument;
+
+/**
+ * Position of a comment in the list of comments of a document.
+ *
+ * <p>Comments are ordered by creation date (newest first), comments created
+ * at the same time by the identifier of the comment document, descending. A
+ * cursor is passed to clients in the form
+ * <code>&lt;creation date in milliseconds&gt;:&lt;identifier&gt;</code> and
+ * marks the last comment of a page; the next page starts with the comment
+ * following it.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public final class CommentCursor implements Comparable<CommentCursor> {
+
+	/**
+	 * Format of a cursor.
+	 */
+	private static final Pattern FORMAT = Pattern.compile("(\\d{1,18}):([0-9a-fA-F-]+)");
+
+	/**
+	 * Creation date of the comment, in milliseconds.
+	 */
+	private final long created;
+
+	/**
+	 * Identifier of the comment document.
+	 */
+	private final String id;
+
+	/**
+	 * Create a cursor.
+	 * @param created The creation date of the comment, in milliseconds.
+	 * @param id The identifier of the comment document.
+	 */
+	public CommentCursor(long created, String id) {
+		this.created = created;
+		this.id = id.toLowerCase();
+	}
+
+	/**
+	 * Create the cursor of a comment.
+	 * @param comment The comment.
+	 * @return The cursor pointing at the comment.
+	 */
+	public static CommentCursor of(CommentDocument comment) {
+		Date date = comment.getDate();
+		return new CommentCursor(date == null ? 0 : date.getTime(), comment.getCanonicalUUID());
+	}
+
+	/**
+	 * Read a cursor passed by a client.
+	 * @param value The cursor in string form.
+	 * @return The cursor, or <code>null</code> if the value is not a valid cursor.
+	 */
+	public static CommentCursor parse(String value) {
+		if (value == null) {
+			return null;
+		}
+		Matcher matcher = FORMAT.matcher(value);
+		if (!matcher.matches()) {
+			return null;
+		}
+		return new CommentCursor(Long.parseLong(matcher.group(1)), matcher.group(2));
+	}
+
+	/**
+	 * @return the creation date of the comment, in milliseconds
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the identifier of the comment document, in lower case
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Compare the positions of two comments.
+	 * @return A negative number if this comment comes first, i.e. is newer.
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(CommentCursor other) {
+		if (created != other.created) {
+			return created > other.created ? -1 : 1;
+		}
+		return other.id.compareTo(id);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof CommentCursor)) {
+			return false;
+		}
+		CommentCursor other = (CommentCursor) obj;
+		return created == other.created && id.equals(other.id);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (created ^ (created >>> 32)) * 31 + id.hashCode();
+	}
+
+	/**
+	 * @return the cursor in the form passed to clients
+	 */
+	@Override
+	public String toString() {
+		return Long.toString(created) + ':' + id;
+	}
+}
@@ -0,0 +1,425 @@
+package org.pfs.de.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.query.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the published comments of each document.
+ * 
+ * <p>For each referenced document (identified by the UUID stored in the
+ * <code>website:reference</code> mirror of the comments) the index holds the
+ * number of comments, the identifiers of the comment handles ordered by
+ * creation date (newest first, see {@link CommentCursor}) and the time the
+ * entry was built. An entry
+ * is built with a single query on first access and kept until a comment of the
+ * document is published, unpublished, changed, moved or removed.</p>
+ * 
+ * <p>The index only contains live comments. It is a JCR {@link EventListener} and
+ * must be registered for node and property events on the content (see the
+ * <code>event-listeners.xml</code> HST assembly override).</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class CommentIndex implements EventListener {
+
+	/**
+	 * Comments of a document.
+	 */
+	public static class Entry {
+
+		/**
+		 * Identifiers of the comment handles, newest first.
+		 */
+		private final List<String> commentIds;
+
+		/**
+		 * Positions of the comments, in the order of {@link #commentIds}.
+		 */
+		private final List<CommentCursor> positions;
+
+		/**
+		 * Time the entry was built, rounded down to seconds.
+		 */
+		private final Date lastModified;
+
+		/**
+		 * Generation of the index when the entry was built.
+		 */
+		private final long version;
+
+		Entry(List<String> commentIds, List<CommentCursor> positions, Date lastModified, long version) {
+			this.commentIds = Collections.unmodifiableList(commentIds);
+			this.positions = Collections.unmodifiableList(positions);
+			this.lastModified = lastModified;
+			this.version = version;
+		}
+
+		/**
+		 * @return the identifiers of the comment handles, newest first. The list is immutable.
+		 */
+		public List<String> getCommentIds() {
+			return commentIds;
+		}
+
+		/**
+		 * @return the positions of the comments, in the order of {@link #getCommentIds()}. The list is immutable.
+		 */
+		public List<CommentCursor> getPositions() {
+			return positions;
+		}
+
+		/**
+		 * Find the first comment following a cursor.
+		 * @param after The cursor of the last comment of the previous page, or
+		 * <code>null</code> to start with the newest comment.
+		 * @return the index of the first comment after the cursor, or {@link #getCount()}
+		 * if there are no more comments.
+		 */
+		public int indexAfter(CommentCursor after) {
+			if (after == null) {
+				return 0;
+			}
+			int index = Collections.binarySearch(positions, after);
+			return index < 0 ? -index - 1 : index + 1;
+		}
+
+		/**
+		 * @return the number of comments
+		 */
+		public int getCount() {
+			return commentIds.size();
+		}
+
+		/**
+		 * @return the time the entry was built, rounded down to seconds. Since an entry is
+		 * rebuilt whenever a comment is published, unpublished or removed, the comments have
+		 * not changed since. <code>null</code> if the document identifier is invalid.
+		 */
+		public Date getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the version of the entry. A rebuilt entry of a document has a higher version.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return a token which changes whenever the entry is rebuilt, also across restarts.
+		 * Suitable as entity tag.
+		 */
+		public String getTag() {
+			return Long.toHexString(STARTED) + '-' + Long.toHexString(version) + '-' + getCount() 
+					+ '-' + (lastModified == null ? 0 : lastModified.getTime());
+		}
+	}
+
+	/**
+	 * Logging instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(CommentIndex.class);
+
+	/**
+	 * Start time of the index, distinguishes entry versions across restarts.
+	 */
+	private static final long STARTED = System.currentTimeMillis();
+
+	/**
+	 * Node type of comments.
+	 */
+	private static final String NT_COMMENT_DOCUMENT = "website:commentdocument";
+
+	/**
+	 * Name of the reference mirror node of comments.
+	 */
+	private static final String NODE_REFERENCE = "website:reference";
+
+	/**
+	 * Valid document identifiers.
+	 */
+	private static final Pattern IDENTIFIER = Pattern.compile("[0-9a-fA-F-]+");
+
+	/**
+	 * Repository used to create sessions.
+	 */
+	private Repository repository;
+
+	/**
+	 * Credentials for sessions, must give access to live content only.
+	 */
+	private Credentials credentials;
+
+	/**
+	 * Repository path below which comments are searched.
+	 */
+	private String contentPath = "/content/documents";
+
+	/**
+	 * Entries by document identifier.
+	 */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Document identifiers by path of indexed comment handles.
+	 */
+	private final ConcurrentMap<String, String> documentsByCommentPath = new ConcurrentHashMap<>();
+
+	/**
+	 * Paths of indexed comment handles by document identifier, used to
+	 * remove the paths of a document without scanning all paths.
+	 */
+	private final ConcurrentMap<String, Set<String>> commentPathsByDocument = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented on each invalidation. Entries built while the index was
+	 * invalidated are not stored.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Get the comments of a document.
+	 * @param documentId The identifier of the document handle, as referenced by the comments.
+	 * @return The comments of the document.
+	 * @throws RepositoryException Error searching the comments.
+	 */
+	public Entry get(String documentId) throws RepositoryException {
+		String key = documentId.toLowerCase();
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = build(key);
+		}
+		return entry;
+	}
+
+	/**
+	 * Search the comments of a document and store them in the index.
+	 * @param documentId The identifier of the document.
+	 * @return The new entry.
+	 * @throws RepositoryException
+	 */
+	private Entry build(String documentId) throws RepositoryException {
+		if (!IDENTIFIER.matcher(documentId).matches()) {
+			return new Entry(Collections.<String>emptyList(), Collections.<CommentCursor>emptyList(), null, 0);
+		}
+		long currentGeneration = generation.get();
+		//Changes during the search invalidate the entry, so it is current as of now
+		long now = System.currentTimeMillis();
+		//Handle identifiers by position, sorted newest first
+		Map<CommentCursor, String> handleIds = new TreeMap<>();
+		Map<String, String> commentPaths = new HashMap<>();
+		Session session = repository.login(credentials);
+		try {
+			String statement = String.format("/jcr:root%s//element(*, %s)[%s/@hippo:docbase = '%s' and @hippo:availability = 'live']", 
+					contentPath, NT_COMMENT_DOCUMENT, NODE_REFERENCE, documentId);
+			@SuppressWarnings("deprecation")
+			NodeIterator nodes = session.getWorkspace().getQueryManager().createQuery(statement, Query.XPATH).execute().getNodes();
+			while (nodes.hasNext()) {
+				Node comment = nodes.nextNode();
+				Node handle = comment.getParent();
+				if (commentPaths.put(handle.getPath(), documentId) != null) {
+					continue;
+				}
+				long created = comment.hasProperty("hippostdpubwf:creationDate") 
+						? comment.getProperty("hippostdpubwf:creationDate").getDate().getTimeInMillis() : 0;
+				handleIds.put(new CommentCursor(created, comment.getIdentifier()), handle.getIdentifier());
+			}
+		} finally {
+			session.logout();
+		}
+		Entry entry = new Entry(new ArrayList<>(handleIds.values()), new ArrayList<>(handleIds.keySet()), 
+				new Date(now - now % 1000), currentGeneration);
+		if (currentGeneration == generation.get()) {
+			documentsByCommentPath.putAll(commentPaths);
+			commentPathsByDocument.put(documentId, Collections.unmodifiableSet(commentPaths.keySet()));
+			entries.put(documentId, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Remove the entry of a document.
+	 * @param documentId The identifier of the document.
+	 */
+	public void invalidate(String documentId) {
+		generation.incrementAndGet();
+		entries.remove(documentId);
+		Set<String> commentPaths = commentPathsByDocument.remove(documentId);
+		if (commentPaths != null) {
+			for (String commentPath : commentPaths) {
+				documentsByCommentPath.remove(commentPath, documentId);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+		documentsByCommentPath.clear();
+		commentPathsByDocument.clear();
+	}
+
+	/**
+	 * Remove entries of documents whose comments are affected by the events.
+	 * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+	 */
+	@Override
+	public void onEvent(EventIterator events) {
+		Session session = null;
+		try {
+			while (events.hasNext()) {
+				Event event = events.nextEvent();
+				String path = event.getPath();
+				//Known comments, also covers removed and unpublished comments
+				if (invalidateIndexed(path)) {
+					continue;
+				}
+				if (event.getType() == Event.NODE_MOVED && event.getInfo().containsKey("srcAbsPath") 
+						&& invalidateIndexed(event.getInfo().get("srcAbsPath").toString())) {
+					continue;
+				}
+				//New comments or newly published comments
+				String nodePath = getChangedNodePath(event);
+				if (nodePath != null) {
+					if (session == null) {
+						session = repository.login(credentials);
+					}
+					invalidateReferenced(session, nodePath);
+				}
+			}
+		} catch (RepositoryException e) {
+			log.warn("Cannot read event, clearing comment index", e);
+			clear();
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry of the document referenced by an indexed comment.
+	 * @param path Path of the comment handle or of a node or property below it.
+	 * @return <code>true</code> if the path belongs to an indexed comment.
+	 */
+	private boolean invalidateIndexed(String path) {
+		String currentPath = path;
+		while (currentPath.length() > 1) {
+			String documentId = documentsByCommentPath.get(currentPath);
+			if (documentId != null) {
+				invalidate(documentId);
+				return true;
+			}
+			currentPath = currentPath.substring(0, Math.max(currentPath.lastIndexOf('/'), 1));
+		}
+		return false;
+	}
+
+	/**
+	 * Get the path of a node which may have become a live comment.
+	 * @param event The event.
+	 * @return The node path, or <code>null</code> if the event cannot add a comment to the index.
+	 * @throws RepositoryException
+	 */
+	private String getChangedNodePath(Event event) throws RepositoryException {
+		String path = event.getPath();
+		switch (event.getType()) {
+		case Event.NODE_ADDED:
+		case Event.NODE_MOVED:
+			return path;
+		case Event.PROPERTY_ADDED:
+		case Event.PROPERTY_CHANGED:
+			String name = path.substring(path.lastIndexOf('/') + 1);
+			if (name.equals("hippo:availability") || name.equals("hippo:docbase")) {
+				return path.substring(0, path.lastIndexOf('/'));
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * If a node is a live comment (or the reference of a live comment), remove
+	 * the entry of the referenced document.
+	 * @param session Session used to read the node.
+	 * @param nodePath The node path.
+	 * @throws RepositoryException
+	 */
+	private void invalidateReferenced(Session session, String nodePath) throws RepositoryException {
+		Node node;
+		try {
+			node = session.getNode(nodePath);
+		} catch (PathNotFoundException e) {
+			//Not visible in live session
+			return;
+		}
+		if (node.getName().equals(NODE_REFERENCE) && node.getDepth() > 0) {
+			node = node.getParent();
+		}
+		if (node.isNodeType(NT_COMMENT_DOCUMENT) && node.hasNode(NODE_REFERENCE)) {
+			Node reference = node.getNode(NODE_REFERENCE);
+			if (reference.hasProperty("hippo:docbase")) {
+				invalidate(reference.getProperty("hippo:docbase").getString().toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * @param repository the repository to set
+	 */
+	public void setRepository(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @param credentials the credentials to set. Must give access to live content only.
+	 */
+	public void setCredentials(Credentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * @param contentPath the contentPath to set
+	 */
+	public void setContentPath(String contentPath) {
+		this.contentPath = contentPath;
+	}
+
+	/**
+	 * @return the number of documents in the index
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+}
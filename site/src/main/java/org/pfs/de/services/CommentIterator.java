@@ -0,0 +1,177 @@
+package org.pfs.de.services;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.hippoecm.hst.content.beans.ObjectBeanManagerException;
+import org.hippoecm.hst.content.beans.manager.ObjectBeanManager;
+import org.hippoecm.hst.content.beans.query.HstQueryResult;
+import org.hippoecm.hst.content.beans.standard.HippoBeanIterator;
+import org.pfs.de.beans.CommentDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterator over a page of comments which reads each comment bean only when it
+ * is requested, so that a page can be written without keeping all comments in
+ * memory.
+ *
+ * <p>Comments are either read from a search result or loaded by the handle
+ * identifiers of a {@link CommentIndex} entry. Comments which cannot be read
+ * are skipped.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public abstract class CommentIterator implements Iterator<CommentDocument> {
+
+	/**
+	 * Logging instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(CommentIterator.class);
+
+	/**
+	 * Number of comments which may still be returned.
+	 */
+	private int remaining = Integer.MAX_VALUE;
+
+	/**
+	 * Comment read ahead by {@link #hasNext()}.
+	 */
+	private CommentDocument next;
+
+	/**
+	 * Create an iterator over a search result.
+	 * @param result The result of a search for comments.
+	 * @return The iterator.
+	 */
+	public static CommentIterator of(final HstQueryResult result) {
+		final HippoBeanIterator beans = result.getHippoBeans();
+		return new CommentIterator() {
+			@Override
+			public int getSize() {
+				return result.getSize();
+			}
+
+			@Override
+			public CommentCursor getCursor(int index) {
+				//Count the comments as returned by read(), other beans in the result are skipped
+				HippoBeanIterator positioned = result.getHippoBeans();
+				CommentCursor cursor = null;
+				int count = 0;
+				while (count <= index && positioned.hasNext()) {
+					Object comment = positioned.nextHippoBean();
+					if (comment instanceof CommentDocument) {
+						cursor = CommentCursor.of((CommentDocument) comment);
+						count++;
+					}
+				}
+				return cursor;
+			}
+
+			@Override
+			protected CommentDocument read() {
+				while (beans.hasNext()) {
+					Object comment = beans.nextHippoBean();
+					if (comment instanceof CommentDocument) {
+						return (CommentDocument) comment;
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Create an iterator loading comments by identifier.
+	 * @param objectBeanManager Bean manager used to load the comments.
+	 * @param commentIds Identifiers of the comment handles.
+	 * @param positions Positions of the comments, in the order of <code>commentIds</code>.
+	 * @return The iterator.
+	 */
+	public static CommentIterator of(final ObjectBeanManager objectBeanManager, final List<String> commentIds,
+			final List<CommentCursor> positions) {
+		final Iterator<String> ids = commentIds.iterator();
+		return new CommentIterator() {
+			@Override
+			public int getSize() {
+				return commentIds.size();
+			}
+
+			@Override
+			public CommentCursor getCursor(int index) {
+				return positions.get(index);
+			}
+
+			@Override
+			protected CommentDocument read() {
+				while (ids.hasNext()) {
+					String commentId = ids.next();
+					try {
+						Object comment = objectBeanManager.getObjectByUuid(commentId);
+						if (comment instanceof CommentDocument) {
+							return (CommentDocument) comment;
+						}
+					} catch (ObjectBeanManagerException e) {
+						log.warn("Cannot read comment " + commentId, e);
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * @return the number of comments found. Comments which cannot be read are included.
+	 */
+	public abstract int getSize();
+
+	/**
+	 * Get the position of a comment without moving the iterator, e.g. the
+	 * position of the last comment returned with a limit of <code>index + 1</code>.
+	 * @param index The index of the comment as returned by the iterator, less than {@link #getSize()}.
+	 * @return The position of the comment, or of the last comment before it if
+	 * there are fewer comments. <code>null</code> if there is no comment.
+	 */
+	public abstract CommentCursor getCursor(int index);
+
+	/**
+	 * Read the next comment.
+	 * @return The comment, or <code>null</code> if there are no more comments.
+	 */
+	protected abstract CommentDocument read();
+
+	/**
+	 * Stop after a number of comments.
+	 * Must be called before the first comment is read.
+	 * @param limit The maximum number of comments returned by the iterator.
+	 */
+	public void setLimit(int limit) {
+		remaining = limit;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && remaining > 0) {
+			next = read();
+		}
+		return next != null;
+	}
+
+	@Override
+	public CommentDocument next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		CommentDocument comment = next;
+		next = null;
+		remaining--;
+		return comment;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
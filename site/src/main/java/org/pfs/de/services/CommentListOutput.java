@@ -0,0 +1,101 @@
+package org.pfs.de.services;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+
+import javax.jcr.RepositoryException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.apache.cxf.jaxrs.impl.MetadataMap;
+import org.pfs.de.services.model.CommentDocumentMapper;
+import org.pfs.de.services.model.CommentDocumentRepresentation;
+
+/**
+ * JSON list of comments which is written while the comments are read.
+ *
+ * <p>Each comment is converted and serialized by the JSON provider as soon
+ * as it has been read from the {@link CommentIterator}, so that only one
+ * comment is held in memory and the first comment is sent before the last one
+ * has been read. The output is the same as for a
+ * <code>List&lt;CommentDocumentRepresentation&gt;</code>.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class CommentListOutput implements StreamingOutput {
+
+	/**
+	 * Annotations passed to the provider.
+	 */
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	/**
+	 * The comments to write.
+	 */
+	private final CommentIterator comments;
+
+	/**
+	 * Mapper creating the representations.
+	 */
+	private final CommentDocumentMapper mapper;
+
+	/**
+	 * Provider serializing a single comment.
+	 */
+	private final MessageBodyWriter<CommentDocumentRepresentation> writer;
+
+	/**
+	 * Create a list.
+	 * @param comments The comments to write.
+	 * @param mapper Mapper creating the representations.
+	 * @param writer Provider serializing a single comment as JSON.
+	 */
+	public CommentListOutput(CommentIterator comments, CommentDocumentMapper mapper,
+			MessageBodyWriter<CommentDocumentRepresentation> writer) {
+		this.comments = comments;
+		this.mapper = mapper;
+		this.writer = writer;
+	}
+
+	/**
+	 * @see javax.ws.rs.core.StreamingOutput#write(java.io.OutputStream)
+	 */
+	@Override
+	public void write(OutputStream output) throws IOException, WebApplicationException {
+		//The provider must not close the response between two comments
+		OutputStream element = new FilterOutputStream(output) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		output.write('[');
+		boolean first = true;
+		while (comments.hasNext()) {
+			CommentDocumentRepresentation representation;
+			try {
+				representation = mapper.map(comments.next());
+			} catch (RepositoryException e) {
+				throw new WebApplicationException(e);
+			}
+			if (!first) {
+				output.write(',');
+			}
+			first = false;
+			writer.writeTo(representation, CommentDocumentRepresentation.class, CommentDocumentRepresentation.class,
+					NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MetadataMap<String, Object>(), element);
+		}
+		output.write(']');
+		output.flush();
+	}
+}
@@ -5,24 +5,38 @@
 package org.pfs.de.services;
 
 import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import javax.jcr.RepositoryException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 
 import org.hippoecm.hst.configuration.hosting.Mount;
 import org.hippoecm.hst.content.annotations.Persistable;
@@ -37,6 +51,7 @@ import org.pfs.de.beans.BaseDocument;
 import org.pfs.de.beans.BlogDocument;
 import org.pfs.de.beans.CommentDocument;
 import org.pfs.de.services.model.BaseDocumentRepresentation;
+import org.pfs.de.services.model.CommentDocumentMapper;
 import org.pfs.de.services.model.CommentDocumentRepresentation;
 
 /**
@@ -48,6 +63,103 @@ import org.pfs.de.services.model.CommentDocumentRepresentation;
 @Path("/documents/")
 public class DocumentResource extends BaseResource implements BaseResource.AkismetConversionCallback<CommentDocument>{
     
+    /**
+     * Maximum number of comments returned by a single request.
+     */
+    private static final int MAX_COMMENT_LIMIT = 200;
+    
+    /**
+     * Response header containing the cursor of the next page of comments.
+     */
+    private static final String HEADER_NEXT_CURSOR = "X-Next-Cursor";
+    
+    /**
+     * Response header containing the number of seconds until a rate limited
+     * request may be repeated.
+     */
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    
+    /**
+     * Status code for rate limited requests.
+     */
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    
+    /**
+     * Request header identifying a comment submission. Repeated requests with
+     * the same key create only one comment.
+     */
+    private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    
+    /**
+     * Format of document identifiers.
+     */
+    private static final Pattern UUID_FORMAT = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    
+    /**
+     * Limit for new comments by remote address.
+     */
+    private RateLimiter addressRateLimiter;
+    
+    /**
+     * Limit for new comments by document.
+     */
+    private RateLimiter documentRateLimiter;
+    
+    /**
+     * Get the limit for new comments by remote address.
+     * @return The limit, or <code>null</code> if none is configured.
+     */
+    public RateLimiter getAddressRateLimiter() {
+        return addressRateLimiter;
+    }
+    
+    /**
+     * Set the limit for new comments by remote address.
+     * @param addressRateLimiter The limit.
+     */
+    public void setAddressRateLimiter(RateLimiter addressRateLimiter) {
+        this.addressRateLimiter = addressRateLimiter;
+    }
+    
+    /**
+     * Get the limit for new comments by document.
+     * @return The limit, or <code>null</code> if none is configured.
+     */
+    public RateLimiter getDocumentRateLimiter() {
+        return documentRateLimiter;
+    }
+    
+    /**
+     * Set the limit for new comments by document.
+     * @param documentRateLimiter The limit.
+     */
+    public void setDocumentRateLimiter(RateLimiter documentRateLimiter) {
+        this.documentRateLimiter = documentRateLimiter;
+    }
+    
+    /**
+     * Recent comment submissions.
+     */
+    private SubmissionCache submissionCache;
+    
+    /**
+     * Get the cache of recent comment submissions.
+     * @return The cache, or <code>null</code> if none is configured.
+     */
+    public SubmissionCache getSubmissionCache() {
+        return submissionCache;
+    }
+    
+    /**
+     * Set the cache of recent comment submissions. If set, repeated
+     * submissions of a comment return the comment created by the first
+     * submission.
+     * @param submissionCache The cache.
+     */
+    public void setSubmissionCache(SubmissionCache submissionCache) {
+        this.submissionCache = submissionCache;
+    }
+    
     /**
      * Get a single document. As this service is not (yet) provided, this method
      * redirects to the comments of the selected document.
@@ -71,36 +183,108 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
     }
     
     /**
-     * Get comments referring to a document. Returns a 404 error if the
-     * document identified by <code>documentId</code> does not exist.
+     * Get comments referring to a document, newest first. Returns a 404 error
+     * if the document identified by <code>documentId</code> does not exist. In
+     * the live site the response carries an entity tag and the publication
+     * date of the newest comment, and conditional requests are answered with
+     * <em>304 Not Modified</em> if the comments did not change.
+     * <p>The comments are returned in pages of at most <code>limit</code>
+     * comments. If there are more comments, the cursor of the next page is
+     * returned in the <code>X-Next-Cursor</code> header, and the URL of the
+     * next page in a <code>Link</code> header with relation <em>next</em>.</p>
+     * <p>If the client prefers JSON, each comment is written as soon as it has
+     * been read, without building the complete list first.</p>
      * @param servletRequest Request object.
      * @param servletResponse Response object.
+     * @param request The JAX-RS request, used to evaluate conditional headers.
+     * @param uriInfo URI info, used to create the link to the next page.
+     * @param headers The request headers, used to select the streaming output.
+     * @param providers The JAX-RS providers, used to serialize streamed comments.
      * @param documentId <em>Path Parameter.</em> UUID of the document to which
      * the comments should refer.
+     * @param limit <em>Query Parameter.</em> Maximum number of comments, at
+     * most 200. Defaults to 50.
+     * @param cursor <em>Query Parameter.</em> Cursor of the page, as returned
+     * with the previous page. If not set, the newest comments are returned.
      * @return A list of comments referring to the document identified by the
      * <code>documentId</code>.
      * @throws ServletException 
      */
     @GET
     @Path("/{documentId}/comments")
-    public List<CommentDocumentRepresentation> getComments(@Context HttpServletRequest servletRequest, 
-												            @Context HttpServletResponse servletResponse,
-												            @PathParam("documentId") String documentId) 
-												            		throws ServletException {
+    public Response getComments(@Context HttpServletRequest servletRequest, 
+						            @Context HttpServletResponse servletResponse,
+						            @Context Request request,
+						            @Context UriInfo uriInfo,
+						            @Context HttpHeaders headers,
+						            @Context Providers providers,
+						            @PathParam("documentId") String documentId,
+						            @QueryParam("limit") @DefaultValue("50") int limit,
+						            @QueryParam("cursor") String cursor) 
+						            		throws ServletException {
         try {
+            //Check paging parameters
+            CommentCursor after = CommentCursor.parse(cursor);
+            if (cursor != null && after == null) {
+                servletResponse.sendError(400, "Invalid cursor");
+                return null;
+            }
+            if (limit <= 0 || limit > MAX_COMMENT_LIMIT) {
+                limit = MAX_COMMENT_LIMIT;
+            }
             //Assert that document exists
             BaseDocument baseDoc = getDocumentById(servletRequest, BaseDocument.class, documentId);
             if (baseDoc == null) {
                 servletResponse.sendError(404, "Requested document does not exist");
-                return Collections.emptyList();
+                return null;
             }
-            //Get comments
-            List<CommentDocument> commentDocuments = getCommentsByRef(servletRequest, documentId, 0);
-            List<CommentDocumentRepresentation> comments = new ArrayList<CommentDocumentRepresentation>(commentDocuments.size());
-            for (CommentDocument doc: commentDocuments) {
-                comments.add(new CommentDocumentRepresentation(getRequestContext(servletRequest), getContentRewriter()).represent(doc));
+            //Answer conditional requests from the comment index
+            EntityTag tag = null;
+            Date lastModified = null;
+            CommentIndex.Entry entry = getCommentIndexEntry(servletRequest, documentId);
+            if (entry != null) {
+                tag = new EntityTag(entry.getTag());
+                lastModified = entry.getLastModified();
+                ResponseBuilder notModified = lastModified == null ? request.evaluatePreconditions(tag) 
+                        : request.evaluatePreconditions(lastModified, tag);
+                if (notModified != null) {
+                    return notModified.build();
+                }
+            }
+            //Get comments, one more than requested to find out whether there is a next page
+            CommentIterator commentIterator = getCommentIterator(servletRequest, documentId, after, limit + 1);
+            CommentCursor next = null;
+            if (commentIterator.getSize() > limit) {
+                next = commentIterator.getCursor(limit - 1);
+                commentIterator.setLimit(limit);
+            }
+            CommentDocumentMapper mapper = new CommentDocumentMapper(getRequestContext(servletRequest), getContentRewriter(), baseDoc);
+            ResponseBuilder response;
+            MessageBodyWriter<CommentDocumentRepresentation> writer = isJsonPreferred(headers) 
+                    ? providers.getMessageBodyWriter(CommentDocumentRepresentation.class, CommentDocumentRepresentation.class, 
+                            new Annotation[0], MediaType.APPLICATION_JSON_TYPE) 
+                    : null;
+            if (writer != null) {
+                response = Response.ok(new CommentListOutput(commentIterator, mapper, writer), 
+                        MediaType.APPLICATION_JSON_TYPE);
+            } else {
+                List<CommentDocumentRepresentation> comments = new ArrayList<CommentDocumentRepresentation>(commentIterator.getSize());
+                while (commentIterator.hasNext()) {
+                    comments.add(mapper.map(commentIterator.next()));
+                }
+                response = Response.ok(new GenericEntity<List<CommentDocumentRepresentation>>(comments) {});
             }
-            return comments;
+            if (tag != null) {
+                response.tag(tag);
+            }
+            if (lastModified != null) {
+                response.lastModified(lastModified);
+            }
+            if (next != null) {
+                response.header(HEADER_NEXT_CURSOR, next.toString());
+                response.header("Link", "<" + uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", next.toString()).build() + ">; rel=\"next\"");
+            }
+            return response.build();
             
         } catch (RepositoryException ex) {
             Logger.getLogger(DocumentResource.class.getName()).log(Level.SEVERE, "Error reading requested document", ex);
@@ -118,6 +302,21 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
         
     }
     
+    /**
+     * Check whether JSON is the preferred response format of a client.
+     * @param headers The request headers.
+     * @return <code>true</code> if the first acceptable media type which is not
+     * a wildcard is JSON.
+     */
+    private static boolean isJsonPreferred(HttpHeaders headers) {
+        for (MediaType type : headers.getAcceptableMediaTypes()) {
+            if (!type.isWildcardType()) {
+                return MediaType.APPLICATION_JSON_TYPE.isCompatible(type);
+            }
+        }
+        return false;
+    }
+    
     /**
      * Get a single comment. Returns a 404 error if the base or comment documents
      * do not exist, or if the comment does not refer to the base document.
@@ -171,30 +370,43 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
     }
     
     /**
-     * Create a new comment document.
+     * Create a new comment document. If too many comments were created by the
+     * client or for the document, the status is <em>429 Too Many Requests</em>.
+     * 
+     * <p>A submission is identified by the <code>Idempotency-Key</code> header, or
+     * by the document, author and text of the comment if the header is missing.
+     * A repeated submission returns the comment created by the first submission
+     * without storing it again, and counts for the limit of the client. If the
+     * first submission is still being processed or did not create a comment,
+     * the status is <em>409 Conflict</em>.</p>
      * @param servletRequest The request object.
      * @param servletResponse Response object.
      * @param uriInfo URI info.
      * @param documentReference The UUID of the document for which the comment is created.
      * @param commentRepresentation The comment data.
-     * @return The complete comment, or <code>null</code> if the comment could not be created.
+     * @return The complete comment, or <code>null</code> if the comment could not be created. If the
+     * spam check is performed in the background, the status is <em>202 Accepted</em> and the comment
+     * is published after the check.
      */
     @Persistable
     @POST
     @Path("/{documentId}/comments")
-    public CommentDocumentRepresentation createComment(@Context HttpServletRequest servletRequest, 
+    public Response createComment(@Context HttpServletRequest servletRequest, 
     													@Context HttpServletResponse servletResponse, 
     													@Context UriInfo uriInfo,
 														@PathParam("documentId") String documentId, 
 														CommentDocumentRepresentation commentRepresentation) {
 
-            
+        String submissionKey = null;
+        boolean submissionCompleted = false;
         try {
             //Check that all parameters are available
-            if (documentId == null || documentId.length() == 0) {
+            if (documentId == null || !UUID_FORMAT.matcher(documentId).matches()) {
                 servletResponse.sendError(400, "Invalid document ID");
                 return null;
             }
+            //Same document for the limits and submissions, regardless of case
+            documentId = documentId.toLowerCase(Locale.ROOT);
             if (commentRepresentation == null) {
                 servletResponse.sendError(400, "Comment data missing");
                 return null;
@@ -204,6 +416,23 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
                 servletResponse.sendError(400, "Comment incomplete");
                 return null;
             }
+            //Answer repeated submissions with the comment of the first submission
+            if (submissionCache != null) {
+                submissionKey = createSubmissionKey(servletRequest, documentId, commentRepresentation);
+                SubmissionCache.Submission submission = submissionCache.begin(submissionKey);
+                if (submission != null) {
+                    submissionKey = null;
+                    //Repeats are limited per client, but do not count for the document
+                    if (isRateLimited(servletRequest, servletResponse, null)) {
+                        return null;
+                    }
+                    return repeatSubmission(servletResponse, submission);
+                }
+            }
+            //Limit new comments before the repository is accessed
+            if (isRateLimited(servletRequest, servletResponse, documentId)) {
+                return null;
+            }
             //Try to find the requested document
             BaseDocument document = getDocumentById(servletRequest, BaseDocument.class, documentId);
             
@@ -237,15 +466,87 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
             	servletResponse.sendError(400, "Comment not accepted");
             	return null;
             } else {
-            	return new CommentDocumentRepresentation(getRequestContext(servletRequest), getContentRewriter()).represent(newComment);
+            	CommentDocumentRepresentation representation = new CommentDocumentRepresentation(getRequestContext(servletRequest), getContentRewriter()).represent(newComment);
+            	Status status = isAsyncSpamCheck() ? Status.ACCEPTED : Status.OK;
+            	if (submissionKey != null) {
+            		submissionCache.complete(submissionKey, representation, status.getStatusCode());
+            		submissionCompleted = true;
+            	}
+            	return Response.status(status).entity(representation).build();
             }
 
         } catch (Exception e) {
             throw new WebApplicationException(e);
+        } finally {
+            if (submissionKey != null && !submissionCompleted) {
+                submissionCache.abort(submissionKey);
+            }
         }
 
     }
     
+    /**
+     * Create the key identifying a comment submission.
+     * @param request The request object.
+     * @param documentId The UUID of the document for which the comment is created.
+     * @param commentRepresentation The comment data.
+     * @return The key.
+     */
+    private String createSubmissionKey(HttpServletRequest request, String documentId, CommentDocumentRepresentation commentRepresentation) {
+        String idempotencyKey = request.getHeader(HEADER_IDEMPOTENCY_KEY);
+        if (!isEmpty(idempotencyKey)) {
+            //Keys are chosen by the clients, so they are only unique per client
+            return SubmissionCache.createKey("key", request.getRemoteAddr(), documentId, idempotencyKey);
+        }
+        //Identical comments of different clients are separate submissions
+        return SubmissionCache.createKey("content", request.getRemoteAddr(), documentId, 
+                commentRepresentation.getAuthor(), commentRepresentation.getText());
+    }
+    
+    /**
+     * Answer a repeated comment submission with the comment created by the
+     * first submission.
+     * @param response The response object.
+     * @param submission The first submission.
+     * @return The comment of the first submission, or <code>null</code> if
+     * it is still being processed or none was created.
+     * @throws IOException
+     */
+    private Response repeatSubmission(HttpServletResponse response, SubmissionCache.Submission submission) throws IOException {
+        CommentDocumentRepresentation representation = submission.getRepresentation();
+        if (representation == null) {
+            response.sendError(409, "Comment is being processed or was not accepted, please try again");
+            return null;
+        }
+        return Response.status(submission.getStatus()).entity(representation).build();
+    }
+    
+    /**
+     * Check the rate limits for a new comment. If a limit is exceeded, a
+     * <em>429 Too Many Requests</em> error is sent.
+     * @param request The request object.
+     * @param response The response object.
+     * @param documentId The UUID of the document for which the comment is created,
+     * or <code>null</code> to check the limit of the client only.
+     * @return <code>true</code> if a limit is exceeded.
+     * @throws IOException
+     */
+    private boolean isRateLimited(HttpServletRequest request, HttpServletResponse response, String documentId) throws IOException {
+        long wait = 0;
+        if (addressRateLimiter != null) {
+            wait = addressRateLimiter.acquire(request.getRemoteAddr());
+        }
+        if (wait == 0 && documentRateLimiter != null && documentId != null) {
+            wait = documentRateLimiter.acquire(documentId);
+        }
+        if (wait == 0) {
+            return false;
+        }
+        response.setHeader(HEADER_RETRY_AFTER, Long.toString((wait + 999) / 1000));
+        response.sendError(STATUS_TOO_MANY_REQUESTS, "Too many comments, please try again later");
+        return true;
+    }
+    
     /**
      * Read data from comment and store in Akismet data structure.
      * @see AkismetConversionCallback#convert(org.pfs.de.beans.BaseDocument)
@@ -260,13 +561,12 @@ public class DocumentResource extends BaseResource implements BaseResource.Akism
 		data.setAuthorUrl(comment.getLink());
 		data.setCommentContent(comment.getText());
 		data.setCommentType(AkismetCommentType.COMMENT);
+		//Site home page
+		data.setBlogUrl(getHomePageUrl(request));
 		//Create links
 		HstLinkCreator linkCreator = getRequestContext(request).getHstLinkCreator();
 		//Current context is REST API, links must be created relative to the main site (root mount)
 		Mount rootMount = getRequestContext(request).getResolvedMount().getMount().getParent();
-		//Site home page
-		HstLink homepageLink = linkCreator.create(rootMount.getHomePage(), rootMount);
-		data.setBlogUrl(homepageLink.toUrlForm(getRequestContext(request), true));
 		//Reference document (in case of comment
 		if (representation instanceof CommentDocumentRepresentation && ((CommentDocumentRepresentation)representation).getReferenceDocument() != null) {
 			HippoDocument refDoc = ((CommentDocumentRepresentation)representation).getReferenceDocument();
@@ -0,0 +1,162 @@
+package org.pfs.de.services;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter, keyed by e.g. the remote address or the target
+ * document of a request.
+ *
+ * <p>Each key has a bucket holding up to {@link #getCapacity() capacity}
+ * tokens. A bucket gains one token per {@link #getInterval() interval}, and
+ * each permitted request takes one token. The state of a bucket is the
+ * time at which it will be full again, updated without locks. A bucket which
+ * is full is the same as a new bucket, so it may be removed at any time: when
+ * the maximum number of keys is exceeded, full buckets are removed first,
+ * then arbitrary buckets.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class RateLimiter {
+
+	/**
+	 * Maximum number of tokens of a bucket, i.e. the number of requests
+	 * permitted in a burst.
+	 */
+	private int capacity = 5;
+
+	/**
+	 * Time in milliseconds in which a bucket gains one token.
+	 */
+	private long interval = 60000;
+
+	/**
+	 * Maximum number of keys.
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Time in milliseconds at which the bucket of a key is full, by key.
+	 */
+	private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of rejected requests.
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Take a token from the bucket of a key.
+	 * @param key The key.
+	 * @return <code>0</code> if the request is permitted, otherwise the time in
+	 * milliseconds until the bucket has a token.
+	 */
+	public long acquire(String key) {
+		long now = System.currentTimeMillis();
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null) {
+			AtomicLong created = new AtomicLong(now);
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+				if (buckets.size() > maxEntries) {
+					evict(now);
+				}
+			}
+		}
+		//The bucket has a token if it is full within (capacity - 1) intervals
+		long limit = now + (capacity - 1) * interval;
+		while (true) {
+			long previous = bucket.get();
+			long full = Math.max(previous, now);
+			if (full > limit) {
+				rejected.incrementAndGet();
+				return full - limit;
+			}
+			//Taking a token delays the time at which the bucket is full by one interval
+			if (bucket.compareAndSet(previous, full + interval)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Remove full buckets, and arbitrary buckets if there are still too many.
+	 * @param now The current time in milliseconds.
+	 */
+	private void evict(long now) {
+		Iterator<AtomicLong> iterator = buckets.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().get() <= now) {
+				iterator.remove();
+			}
+		}
+		iterator = buckets.values().iterator();
+		while (buckets.size() > maxEntries && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @return the maximum number of tokens of a bucket
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity the maximum number of tokens of a bucket
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the time in milliseconds in which a bucket gains one token
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @param interval the time in milliseconds in which a bucket gains one token
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @return the maximum number of keys
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of keys
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int getSize() {
+		return buckets.size();
+	}
+
+	/**
+	 * @return the number of rejected requests
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+}
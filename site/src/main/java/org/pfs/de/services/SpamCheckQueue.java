@@ -0,0 +1,424 @@
+package org.pfs.de.services;
+
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Credentials;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.hippoecm.repository.api.WorkflowException;
+import org.pfs.de.akismet.AkismetCommentData;
+import org.pfs.de.akismet.AkismetConfigurationCache;
+import org.pfs.de.akismet.filter.SpamFilter;
+import org.pfs.de.akismet.rest.AkismetApi;
+import org.pfs.de.events.AutomaticPublicationSubscriber;
+import org.pfs.de.events.AutomaticPublicationSubscriber.PublishAction;
+import org.pfs.de.events.DocumentPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs Akismet spam checks in the background, so that the comment
+ * service can answer without waiting for the Akismet server.
+ * 
+ * <p>The comment is saved unpublished together with the data required for
+ * the check (see {@link AkismetCommentData#save(Node)}) and its handle is set
+ * to {@link PublishAction#IGNORE ignore}. The stored data acts as a persistent
+ * queue: a bounded pool of workers performs the checks, sets the publish action
+ * and publishes the comment if required. Checks which cannot be queued because
+ * the pool is busy, checks which failed and checks left over from a restart are
+ * picked up again by a periodic sweep over the repository. After the configured
+ * number of failed attempts the comment stays unpublished.</p>
+ * 
+ * <p>The session used by the workers must be allowed to read the Akismet and
+ * publication configuration, to modify comments and to publish them.</p>
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SpamCheckQueue {
+
+	/**
+	 * Logging instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(SpamCheckQueue.class);
+
+	/**
+	 * Repository used to create the worker sessions.
+	 */
+	private Repository repository;
+
+	/**
+	 * Credentials for the worker sessions.
+	 */
+	private Credentials credentials;
+
+	/**
+	 * The Akismet API used for checks.
+	 */
+	private AkismetApi akismetApi;
+
+	/**
+	 * Cache for Akismet configurations.
+	 */
+	private AkismetConfigurationCache configurationCache;
+
+	/**
+	 * Local checks before Akismet is called.
+	 */
+	private SpamFilter spamFilter;
+
+	/**
+	 * Flag if background checks are enabled.
+	 */
+	private boolean enabled;
+
+	/**
+	 * Number of worker threads.
+	 */
+	private int workerCount = 2;
+
+	/**
+	 * Maximum number of checks waiting for a worker.
+	 */
+	private int queueCapacity = 100;
+
+	/**
+	 * Interval between two sweeps for pending checks, in seconds.
+	 */
+	private long retryInterval = 60;
+
+	/**
+	 * Maximum number of attempts before a check is given up.
+	 */
+	private int maxAttempts = 5;
+
+	/**
+	 * Repository path below which pending checks are searched.
+	 */
+	private String contentPath = "/content/documents";
+
+	/**
+	 * Executes the checks.
+	 */
+	private volatile ThreadPoolExecutor executor;
+
+	/**
+	 * Runs the periodic sweep.
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Identifiers of document nodes which are queued or being checked.
+	 */
+	private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Start the workers and the periodic sweep. Does nothing if the queue is not enabled.
+	 */
+	public synchronized void start() {
+		if (!enabled || executor != null) {
+			return;
+		}
+		executor = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory("spam-check-worker"));
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("spam-check-sweep"));
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, retryInterval, retryInterval, TimeUnit.SECONDS);
+		log.info("Started background spam checks with {} workers", workerCount);
+	}
+
+	/**
+	 * Stop the workers and the sweep. Pending checks remain in the repository
+	 * and are processed after the next start.
+	 */
+	public synchronized void stop() {
+		if (executor == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		scheduler = null;
+		inFlight.clear();
+	}
+
+	/**
+	 * Prepare a new comment for a background check. Stores the comment data on
+	 * the document node and sets the handle to {@link PublishAction#IGNORE ignore}
+	 * until the check is complete. The session is not saved.
+	 * @param documentNode The node of the comment document.
+	 * @param documentHandle The handle of the comment document.
+	 * @param commentData Complete data of the comment.
+	 * @throws RepositoryException
+	 */
+	public void prepare(Node documentNode, Node documentHandle, AkismetCommentData commentData) throws RepositoryException {
+		commentData.save(documentNode);
+		AutomaticPublicationSubscriber.setAutoPublishAction(documentHandle, PublishAction.IGNORE);
+	}
+
+	/**
+	 * Queue the check for a saved comment. If all workers are busy and the queue is
+	 * full, the check remains pending in the repository and is queued by the next sweep.
+	 * @param documentId Identifier of the comment document node.
+	 * @return <code>true</code> if the check was queued.
+	 */
+	public boolean submit(final String documentId) {
+		ThreadPoolExecutor currentExecutor = executor;
+		if (currentExecutor == null || !inFlight.add(documentId)) {
+			return false;
+		}
+		try {
+			currentExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						process(documentId);
+					} finally {
+						inFlight.remove(documentId);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			inFlight.remove(documentId);
+			log.debug("Spam check queue is full, check for {} is deferred", documentId);
+			return false;
+		}
+	}
+
+	/**
+	 * Queue pending checks found in the repository, up to the free capacity of the queue.
+	 */
+	protected void sweep() {
+		ThreadPoolExecutor currentExecutor = executor;
+		if (currentExecutor == null) {
+			return;
+		}
+		Session session = null;
+		try {
+			session = repository.login(credentials);
+			String statement = String.format("/jcr:root%s//element(*, %s)", contentPath, AkismetCommentData.NODE_TYPE_CHECK_REQUEST);
+			@SuppressWarnings("deprecation")
+			NodeIterator nodes = session.getWorkspace().getQueryManager().createQuery(statement, Query.XPATH).execute().getNodes();
+			while (nodes.hasNext() && currentExecutor.getQueue().remainingCapacity() > 0) {
+				submit(nodes.nextNode().getIdentifier());
+			}
+		} catch (RepositoryException e) {
+			log.error("Searching for pending spam checks failed", e);
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Perform the check for a comment and publish it if required.
+	 * @param documentId Identifier of the comment document node.
+	 */
+	protected void process(String documentId) {
+		Session session = null;
+		try {
+			session = repository.login(credentials);
+			Node documentNode;
+			try {
+				documentNode = session.getNodeByIdentifier(documentId);
+			} catch (ItemNotFoundException e) {
+				log.debug("Comment {} was removed before the spam check", documentId);
+				return;
+			}
+			AkismetCommentData commentData = AkismetCommentData.read(documentNode);
+			if (commentData == null) {
+				//Already processed
+				return;
+			}
+			Node documentHandle = documentNode.getParent();
+
+			PublishAction action = null;
+			switch (new SpamChecker(akismetApi, configurationCache, spamFilter).check(session, documentNode, documentHandle, commentData)) {
+			case ACCEPT:
+				action = DocumentPublisher.readPublishAction(documentHandle);
+				break;
+			case UNCONFIGURED:
+				//Same as a check during the request: use the action configured on the folders
+				action = DocumentPublisher.getPublishAction(session, documentHandle.getParent());
+				break;
+			case REJECT:
+				log.info("Comment {} was rejected as spam and will not be published", documentId);
+				break;
+			case UNAVAILABLE:
+				//Not counted as attempt, the next sweep checks again
+				log.debug("Akismet is unavailable, spam check for comment {} is retried later", documentId);
+				return;
+			case INVALID:
+			case FAILED:
+				long attempts = documentNode.getProperty(AkismetCommentData.NODE_PROPERTY_CHECK_ATTEMPTS).getLong() + 1;
+				if (attempts < maxAttempts) {
+					documentNode.setProperty(AkismetCommentData.NODE_PROPERTY_CHECK_ATTEMPTS, attempts);
+					session.save();
+					return;
+				}
+				log.error("Spam check for comment {} failed {} times, comment will not be published", documentId, attempts);
+				break;
+			}
+			AkismetCommentData.remove(documentNode);
+			session.save();
+
+			if (action != null && !PublishAction.IGNORE.equals(action)) {
+				if (DocumentPublisher.publishDocument(session, documentNode, action)) {
+					session.save();
+				}
+			}
+		} catch (RepositoryException | RemoteException | WorkflowException e) {
+			log.error("Background spam check for comment " + documentId + " failed", e);
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Check if background checks are enabled and running.
+	 * @return <code>true</code> if comments should be checked in the background.
+	 */
+	public boolean isEnabled() {
+		return enabled && executor != null;
+	}
+
+	/**
+	 * Get the number of checks waiting for a worker.
+	 * @return The queue length.
+	 */
+	public int getQueueLength() {
+		ThreadPoolExecutor currentExecutor = executor;
+		return currentExecutor == null ? 0 : currentExecutor.getQueue().size();
+	}
+
+	/**
+	 * @param repository the repository to set
+	 */
+	public void setRepository(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @param credentials the credentials to set
+	 */
+	public void setCredentials(Credentials credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * @param akismetApi the Akismet API to set
+	 */
+	public void setAkismetApi(AkismetApi akismetApi) {
+		this.akismetApi = akismetApi;
+	}
+
+	/**
+	 * @param configurationCache the Akismet configuration cache to set
+	 */
+	public void setConfigurationCache(AkismetConfigurationCache configurationCache) {
+		this.configurationCache = configurationCache;
+	}
+
+	/**
+	 * @param spamFilter the local checks before Akismet is called
+	 */
+	public void setSpamFilter(SpamFilter spamFilter) {
+		this.spamFilter = spamFilter;
+	}
+
+	/**
+	 * @param enabled the enabled flag to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param workerCount the workerCount to set
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	/**
+	 * @param queueCapacity the queueCapacity to set
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param retryInterval the retry interval in seconds to set
+	 */
+	public void setRetryInterval(long retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+
+	/**
+	 * @param maxAttempts the maxAttempts to set
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @param contentPath the contentPath to set
+	 */
+	public void setContentPath(String contentPath) {
+		this.contentPath = contentPath;
+	}
+
+	/**
+	 * Creates named daemon threads.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
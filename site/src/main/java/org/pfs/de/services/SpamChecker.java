@@ -0,0 +1,232 @@
+package org.pfs.de.services;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.pfs.de.akismet.AkismetCheckResult;
+import org.pfs.de.akismet.AkismetClient;
+import org.pfs.de.akismet.AkismetCommentData;
+import org.pfs.de.akismet.AkismetConfiguration;
+import org.pfs.de.akismet.AkismetConfigurationCache;
+import org.pfs.de.akismet.AkismetException;
+import org.pfs.de.akismet.AkismetUnavailableException;
+import org.pfs.de.akismet.filter.SpamFilter;
+import org.pfs.de.akismet.rest.AkismetApi;
+import org.pfs.de.events.AutomaticPublicationSubscriber;
+import org.pfs.de.events.AutomaticPublicationSubscriber.PublishAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs the Akismet spam check for a comment and marks the document
+ * handle with the resulting publish action. Used for checks during the
+ * request and for checks in the background.
+ * 
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SpamChecker {
+
+	/**
+	 * Outcome of a spam check.
+	 */
+	public static enum Verdict {
+		/**
+		 * The comment was checked and the publish action was set on the
+		 * document handle.
+		 */
+		ACCEPT,
+		/**
+		 * The comment was checked and should be discarded.
+		 */
+		REJECT,
+		/**
+		 * No (complete) Akismet configuration was found, the comment was
+		 * not checked.
+		 */
+		UNCONFIGURED,
+		/**
+		 * The Akismet server returned an invalid result.
+		 */
+		INVALID,
+		/**
+		 * The Akismet server could not be contacted.
+		 */
+		FAILED,
+		/**
+		 * The Akismet server did not answer within the latency budget or
+		 * is not called because of repeated failures.
+		 */
+		UNAVAILABLE
+	}
+
+	/**
+	 * Logging instance.
+	 */
+	private static final Logger log = LoggerFactory.getLogger(SpamChecker.class);
+
+	/**
+	 * The Akismet API used for checks.
+	 */
+	private final AkismetApi akismetApi;
+
+	/**
+	 * Cache for Akismet configurations, may be <code>null</code>.
+	 */
+	private final AkismetConfigurationCache configurationCache;
+
+	/**
+	 * Local checks before Akismet is called, may be <code>null</code>.
+	 */
+	private final SpamFilter spamFilter;
+
+	/**
+	 * Create a new spam checker.
+	 * @param akismetApi The Akismet API used for checks.
+	 * @param configurationCache Cache for Akismet configurations. If <code>null</code>,
+	 * the configuration is read from the repository for each check.
+	 */
+	public SpamChecker(AkismetApi akismetApi, AkismetConfigurationCache configurationCache) {
+		this(akismetApi, configurationCache, null);
+	}
+
+	/**
+	 * Create a new spam checker.
+	 * @param akismetApi The Akismet API used for checks.
+	 * @param configurationCache Cache for Akismet configurations. If <code>null</code>,
+	 * the configuration is read from the repository for each check.
+	 * @param spamFilter Local checks before Akismet is called. If <code>null</code>,
+	 * all comments are checked by Akismet.
+	 */
+	public SpamChecker(AkismetApi akismetApi, AkismetConfigurationCache configurationCache, SpamFilter spamFilter) {
+		this.akismetApi = akismetApi;
+		this.configurationCache = configurationCache;
+		this.spamFilter = spamFilter;
+	}
+
+	/**
+	 * Check a comment for spam. The check result is stored on the document node,
+	 * the publish action is set on the document handle. The session is not saved.
+	 * @param session The session used to read the Akismet configuration.
+	 * @param documentNode The node of the checked document.
+	 * @param documentHandle The handle of the checked document.
+	 * @param commentData Complete data of the comment. The blog URL is used as
+	 * home page for the Akismet API key.
+	 * @return The outcome of the check.
+	 * @throws RepositoryException
+	 */
+	public Verdict check(Session session, Node documentNode, Node documentHandle, AkismetCommentData commentData) throws RepositoryException {
+		//Read configuration from repository
+		AkismetConfiguration configuration = configurationCache == null 
+				? AkismetConfiguration.readConfiguration(session, documentNode) 
+				: configurationCache.getConfiguration(session, documentNode);
+		if (!configuration.isComplete()) {
+			//Incomplete configuration
+			log.warn("Akismet configuration is incomplete for document {}", commentData.getIdentifier());
+			return Verdict.UNCONFIGURED;
+		}
+		PublishAction hamAction = PublishAction.getAction(configuration.hamAction);
+		if (hamAction == null) {
+			log.error("Invalid Akismet ham actions: {} ", configuration.hamAction);
+			return Verdict.UNCONFIGURED;
+		}
+
+		//Local checks; spam is not published unless it is rejected
+		if (spamFilter != null) {
+			switch (spamFilter.filter(commentData)) {
+			case SPAM:
+				if (AkismetConfiguration.PROP_VALUE_SPAM_ACTION_REJECT.equals(configuration.spamAction)) {
+					return Verdict.REJECT;
+				}
+				AutomaticPublicationSubscriber.setAutoPublishAction(documentHandle, PublishAction.IGNORE);
+				return Verdict.ACCEPT;
+			case HAM:
+				AutomaticPublicationSubscriber.setAutoPublishAction(documentHandle, hamAction);
+				return Verdict.ACCEPT;
+			default:
+				break;
+			}
+		}
+
+		//Create client and check key
+		try {
+			PublishAction action;
+			AkismetClient client = new AkismetClient(akismetApi, configuration.apiKey, commentData.getBlogUrl());
+			if (!client.checkApiKey()) {
+				log.error("Akismet API key is incorrect");
+				action = PublishAction.IGNORE;
+			} else {
+				//Check comment
+				AkismetCheckResult result = client.checkComment(commentData);
+				result.save(documentNode);
+				if (result.isError()) {
+					log.error("Akismet spam check failed for comment {}", commentData.getIdentifier());
+					if (log.isDebugEnabled() && result.getAdditionalInformation().containsKey(AkismetCheckResult.INFO_DEBUG)) {
+						//Write additional debug information
+						log.debug("Error from Akismet server {}: {}", 
+								result.getAdditionalInformation().get(AkismetCheckResult.INFO_SERVER),
+								result.getAdditionalInformation().get(AkismetCheckResult.INFO_DEBUG));
+					}
+					return Verdict.INVALID;
+				}
+
+				//Process result
+				switch (result.getResult()) {
+				case HAM:
+					action = hamAction;
+					break;
+				case SPAM:
+				{
+					if (configuration.spamAction == null) {
+						//Default to ignore if not configured
+						action = PublishAction.IGNORE;
+					} else if (configuration.spamAction.equals(AkismetConfiguration.PROP_VALUE_SPAM_ACTION_REJECT)) {
+						//Reject spam comment
+						return Verdict.REJECT;
+					} else {
+						PublishAction spamAction = PublishAction.getAction(configuration.spamAction);
+						if (spamAction == null) {
+							log.error("Invalid Akismet spam action: {} ; defaulting to ignore", configuration.hamAction);
+							action =  PublishAction.IGNORE;
+						} else if (AkismetConfiguration.PROP_VALUE_SPAM_ACTION_RECOMMEND.equals(spamAction)) {
+							//Follow recommendation from Akismet service
+							String akismetRecommendation = result.getAdditionalInformation().get(AkismetCheckResult.INFO_RECOMMENDATION);
+							if (AkismetCheckResult.INFO_RECOMMENDATION_DISCARD.equals(akismetRecommendation)) {
+								//Discard directly
+								return Verdict.REJECT;
+							} else {
+								//Do not publish comment
+								action = PublishAction.IGNORE;
+							}
+						} else {
+							action = spamAction;
+						}
+					}
+					break;
+				}
+				case INVALID:
+					//We should never reach this block, because errors are handled before (in block if (result.isError())...)
+					// However, handle this situation gracefully in case of future changes influencing this behavior
+					log.error("Akismet spam check failed for comment {}", commentData.getIdentifier());
+					action = PublishAction.IGNORE;
+					break;
+				default:
+					log.error("Akismet spam check returned unknown result type {}", result.getResult());
+					action = PublishAction.IGNORE;
+				}
+			}
+			//Set desired action on the document handle
+			AutomaticPublicationSubscriber.setAutoPublishAction(documentHandle, action);
+
+			return Verdict.ACCEPT;
+
+		} catch (AkismetUnavailableException e) {
+			log.warn("Akismet is unavailable, comment {} was not checked: {}", commentData.getIdentifier(), e.getMessage());
+			return Verdict.UNAVAILABLE;
+		} catch (AkismetException e) {
+			log.error("Akismet check failed", e);
+			return Verdict.FAILED;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.pfs.de.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pfs.de.services.model.CommentDocumentRepresentation;
+
+/**
+ * Short-lived cache of comment submissions, used to store repeated
+ * submissions of the same comment only once.
+ *
+ * <p>A submission is identified by a key, e.g. created from the
+ * <code>Idempotency-Key</code> header of the request or from the content of
+ * the comment. The first request {@link #begin(String) begins} the
+ * submission and {@link #complete(String, CommentDocumentRepresentation, int) completes}
+ * it with the created comment, or {@link #abort(String) aborts} it if no
+ * comment was created. Repeated requests get the pending or completed
+ * submission and answer with the comment of the first request, or with an
+ * error while it is pending; they never wait for the first request. Completed
+ * submissions are kept for the configured time.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class SubmissionCache {
+
+	/**
+	 * A comment submission.
+	 */
+	public static class Submission {
+
+		/**
+		 * The created comment, <code>null</code> if the submission is pending
+		 * or was aborted. Set last when the submission is completed.
+		 */
+		private volatile CommentDocumentRepresentation representation;
+
+		/**
+		 * The status of the response to the first request.
+		 */
+		private volatile int status;
+
+		/**
+		 * Time in milliseconds after which the submission is removed. Pending
+		 * submissions do not expire.
+		 */
+		private volatile long expiresAt = Long.MAX_VALUE;
+
+		/**
+		 * @return the comment created by the first request, or <code>null</code>
+		 * if the first request is still pending or did not create a comment
+		 */
+		public CommentDocumentRepresentation getRepresentation() {
+			return representation;
+		}
+
+		/**
+		 * @return the status of the response to the first request, valid if
+		 * {@link #getRepresentation()} is not <code>null</code>
+		 */
+		public int getStatus() {
+			return status;
+		}
+	}
+
+	/**
+	 * Digits for the hexadecimal keys.
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Time in milliseconds a completed submission is kept.
+	 */
+	private long ttl = 60000;
+
+	/**
+	 * Maximum number of submissions.
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Submissions by key.
+	 */
+	private final ConcurrentMap<String, Submission> submissions = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of repeated submissions.
+	 */
+	private final AtomicLong duplicates = new AtomicLong();
+
+	/**
+	 * Create the key of a submission.
+	 * @param parts The values identifying the submission. <code>null</code>
+	 * values are treated as empty.
+	 * @return The key, a hash of the values.
+	 */
+	public static String createKey(String... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//Required for every Java platform
+			throw new IllegalStateException(e);
+		}
+		for (String part : parts) {
+			if (part != null) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte) 0);
+		}
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Begin a submission.
+	 * @param key The key of the submission.
+	 * @return <code>null</code> if the submission is new and must be completed
+	 * or aborted by the caller, otherwise the pending or completed submission
+	 * with the same key.
+	 */
+	public Submission begin(String key) {
+		long now = System.currentTimeMillis();
+		Submission created = new Submission();
+		while (true) {
+			Submission existing = submissions.putIfAbsent(key, created);
+			if (existing == null) {
+				if (submissions.size() > maxEntries) {
+					evict(now);
+				}
+				return null;
+			}
+			if (existing.expiresAt > now) {
+				duplicates.incrementAndGet();
+				return existing;
+			}
+			if (submissions.replace(key, existing, created)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Complete a submission begun by the caller.
+	 * @param key The key of the submission.
+	 * @param representation The created comment.
+	 * @param status The status of the response.
+	 */
+	public void complete(String key, CommentDocumentRepresentation representation, int status) {
+		Submission submission = submissions.get(key);
+		if (submission == null) {
+			return;
+		}
+		submission.status = status;
+		submission.expiresAt = System.currentTimeMillis() + ttl;
+		submission.representation = representation;
+	}
+
+	/**
+	 * Abort a submission begun by the caller, because no comment was created.
+	 * @param key The key of the submission.
+	 */
+	public void abort(String key) {
+		submissions.remove(key);
+	}
+
+	/**
+	 * Remove expired submissions, and completed submissions if there are
+	 * still too many.
+	 * @param now The current time in milliseconds.
+	 */
+	private void evict(long now) {
+		Iterator<Submission> iterator = submissions.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expiresAt <= now) {
+				iterator.remove();
+			}
+		}
+		iterator = submissions.values().iterator();
+		while (submissions.size() > maxEntries && iterator.hasNext()) {
+			if (iterator.next().expiresAt != Long.MAX_VALUE) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the time in milliseconds a completed submission is kept
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @param ttl the time in milliseconds a completed submission is kept
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @return the maximum number of submissions
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of submissions
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the number of submissions
+	 */
+	public int getSize() {
+		return submissions.size();
+	}
+
+	/**
+	 * @return the number of repeated submissions
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+}
@@ -0,0 +1,58 @@
+package org.pfs.de.services.model;
+
+import javax.jcr.RepositoryException;
+
+import org.hippoecm.hst.content.beans.standard.HippoDocument;
+import org.hippoecm.hst.content.rewriter.ContentRewriter;
+import org.hippoecm.hst.core.request.HstRequestContext;
+import org.pfs.de.beans.CommentDocument;
+
+/**
+ * Creates the representations of the comments of one document.
+ *
+ * <p>The request context, the content rewriter and the commented document
+ * are resolved once per request, so that converting a comment only copies
+ * its fields. A mapper must only be used for comments referring to its
+ * document, and only within the request it was created for.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ */
+public class CommentDocumentMapper {
+
+    /**
+     * The request context.
+     */
+    private final HstRequestContext requestContext;
+
+    /**
+     * The content rewriter.
+     */
+    private final ContentRewriter<String> contentRewriter;
+
+    /**
+     * The document referenced by all comments.
+     */
+    private final HippoDocument referencedDocument;
+
+    /**
+     * Create a mapper for the comments of a document.
+     * @param requestContext The request context.
+     * @param contentRewriter The content rewriter.
+     * @param referencedDocument The document referenced by the comments.
+     */
+    public CommentDocumentMapper(HstRequestContext requestContext, ContentRewriter<String> contentRewriter, HippoDocument referencedDocument) {
+        this.requestContext = requestContext;
+        this.contentRewriter = contentRewriter;
+        this.referencedDocument = referencedDocument;
+    }
+
+    /**
+     * Create the representation of a comment.
+     * @param comment The comment, referring to the document of this mapper.
+     * @return A representation of the comment.
+     * @throws RepositoryException
+     */
+    public CommentDocumentRepresentation map(CommentDocument comment) throws RepositoryException {
+        return new CommentDocumentRepresentation(requestContext, contentRewriter).represent(comment, referencedDocument);
+    }
+}
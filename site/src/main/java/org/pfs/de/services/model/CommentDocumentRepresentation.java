@@ -45,6 +45,18 @@ public class CommentDocumentRepresentation extends BaseDocumentRepresentation {
      * @throws RepositoryException
      */
     public CommentDocumentRepresentation represent(CommentDocument document) throws RepositoryException {
+        return represent(document, document.getReferencedDocument());
+    }
+    
+    /**
+     * Create a representation for a comment document whose referenced
+     * document is already known.
+     * @param document The comment document.
+     * @param referencedDocument The document referenced by the comment.
+     * @return A representation of the comment document.
+     * @throws RepositoryException
+     */
+    public CommentDocumentRepresentation represent(CommentDocument document, HippoDocument referencedDocument) throws RepositoryException {
         super.represent(document);
         
         //Read fields from comment document
@@ -52,7 +64,7 @@ public class CommentDocumentRepresentation extends BaseDocumentRepresentation {
         setDate(document.getDate());
         setLink(document.getLink());
         setText(document.getText());
-        setReferenceDocument(document.getReferencedDocument());
+        setReferenceDocument(referencedDocument);
         
         return this;
     }
@@ -0,0 +1,77 @@
+package org.pfs.de.tags;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.JspFragment;
+import javax.servlet.jsp.tagext.SimpleTagSupport;
+
+import org.hippoecm.hst.site.HstServices;
+import org.pfs.de.components.FragmentCache;
+
+/**
+ * Renders a cacheable fragment of a component.
+ *
+ * <p>If a cached fragment is given, it is written instead of evaluating the
+ * body. Otherwise the body is evaluated and, if a key is given, stored in the
+ * {@link FragmentCache}. Key and cached fragment are set by the component, see
+ * {@link org.pfs.de.components.BaseComponent#getCachedFragment(org.hippoecm.hst.core.component.HstRequest, String...)}.
+ * Output with side effects (e.g. head contributions) must not be part of the body.</p>
+ *
+ * @author Martin Dreier <martin@martindreier.de>
+ *
+ */
+public class FragmentTag extends SimpleTagSupport {
+
+	/**
+	 * Key of the fragment, <code>null</code> if the fragment is not cached.
+	 */
+	private String key;
+
+	/**
+	 * Cached fragment.
+	 */
+	private String value;
+
+	/**
+	 * @see javax.servlet.jsp.tagext.SimpleTagSupport#doTag()
+	 */
+	@Override
+	public void doTag() throws JspException, IOException {
+		if (value != null) {
+			getJspContext().getOut().write(value);
+			return;
+		}
+		JspFragment body = getJspBody();
+		if (body == null) {
+			return;
+		}
+		if (key == null || key.isEmpty() || !HstServices.isAvailable()) {
+			body.invoke(null);
+			return;
+		}
+		StringWriter writer = new StringWriter();
+		body.invoke(writer);
+		String fragment = writer.toString();
+		FragmentCache cache = HstServices.getComponentManager().getComponent(FragmentCache.class.getName());
+		if (cache != null) {
+			cache.put(key, fragment);
+		}
+		getJspContext().getOut().write(fragment);
+	}
+
+	/**
+	 * @param key the key of the fragment. If empty, the fragment is not cached.
+	 */
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @param value the cached fragment. If empty, the body is evaluated.
+	 */
+	public void setValue(String value) {
+		this.value = value == null || value.isEmpty() ? null : value;
+	}
+}
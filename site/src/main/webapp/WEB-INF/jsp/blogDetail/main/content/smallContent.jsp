@@ -1,6 +1,8 @@
 <%@ include file="/WEB-INF/jspf/htmlTags.jspf" %>
 <%--@elvariable id="document" type="org.pfs.de.beans.BlogDocument"--%>
 <%--@elvariable id="headTitle" type="java.lang.String"--%>
+<%--@elvariable id="fragmentKey" type="java.lang.String"--%>
+<%--@elvariable id="fragment" type="java.lang.String"--%>
 
 <c:choose>
   <c:when test="${empty document}">
@@ -17,6 +19,7 @@
       <hst:headContribution keyHint="headTitle" element="${headTitle}"/>
     </c:if>
 
+    <site:fragment key="${fragmentKey}" value="${fragment}">
     <article class="well-large">
       <hst:cmseditlink hippobean="${document}"/>
       <header>
@@ -36,6 +39,7 @@
 
       <hst:html hippohtml="${document.html}"/>
     </article>
+    </site:fragment>
 
 	<hst:include ref="commentList"/>
 	<c:if test="${document.commentsAllowed}">
@@ -1,12 +1,11 @@
 <%@ include file="/WEB-INF/jspf/htmlTags.jspf" %>
-<%--@elvariable id="comments" type="org.hippoecm.hst.content.beans.query.HstQueryResult"--%>
-
-  <c:if test="${empty comments }">
-  	NO COMMENTS!!!!
-  </c:if>
+<%--@elvariable id="comments" type="java.util.List<org.pfs.de.beans.CommentDocument>"--%>
+<%--@elvariable id="fragmentKey" type="java.lang.String"--%>
+<%--@elvariable id="fragment" type="java.lang.String"--%>
 
+<site:fragment key="${fragmentKey}" value="${fragment}">
   <div id="commentContainer">
-	<c:forEach var="comment" items="${comments.hippoBeans}">
+	<c:forEach var="comment" items="${comments}">
       <article class="well well-large">
         <h4>${fn:escapeXml(comment.author)}</h4>
         <p class="badge badge-info">
@@ -22,4 +21,5 @@
         <p>${fn:escapeXml(comment.text)}</p>
       </article>
     </c:forEach>
-  </div>
\ No newline at end of file
+  </div>
+</site:fragment>
\ No newline at end of file
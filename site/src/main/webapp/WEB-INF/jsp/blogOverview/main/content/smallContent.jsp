@@ -1,10 +1,11 @@
 <%@ include file="/WEB-INF/jspf/htmlTags.jspf" %>
 
-<%--@elvariable id="result" type="org.hippoecm.hst.content.beans.query.HstQueryResult"--%>
 <%--@elvariable id="crPage" type="java.lang.Integer"--%>
 <%--@elvariable id="info" type="${package}.componentsinfo.GeneralListInfo" --%>
 <%--@elvariable id="page" type="java.util.Collection<java.lang.Integer>"--%>
 <%--@elvariable id="pages" type="java.util.Collection<java.lang.Integer>"--%>
+<%--@elvariable id="documents" type="java.util.List<org.pfs.de.beans.BlogDocument>"--%>
+<%--@elvariable id="next" type="java.lang.String"--%>
 
 <c:choose>
   <c:when test="${empty info}">
@@ -19,7 +20,7 @@
     </c:if>
 
 
-    <c:forEach var="item" items="${result.hippoBeans}" begin="${begin}" end="${begin + info.pageSize - 1}">
+    <c:forEach var="item" items="${documents}">
       <hst:link var="link" hippobean="${item}"/>
       <article class="well-large-noBottomPadding blackTitle">
         <hst:cmseditlink hippobean="${item}"/>
@@ -44,7 +45,7 @@
     </c:forEach>
 
     <!--if there are pages on the request, they will be printed by the tag:pages -->
-    <tag:pages pages="${pages}" page="${page}"/>
+    <tag:pages pages="${pages}" page="${page}" next="${next}"/>
 
   </c:otherwise>
 </c:choose>
\ No newline at end of file
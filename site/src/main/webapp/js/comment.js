@@ -42,6 +42,11 @@ function addComment(commentData) {
 $(document).ready(function() {
 	var button = $("#comment-submit");
 	
+	//Last submitted comment. Repeated submits of the same comment (e.g. double
+	//clicks or retries) send the same idempotency key, so that the server stores
+	//the comment only once.
+	var submission = null;
+	
 	button.click(function(ev) {
 		var form = $("#website-comments-form");
 		
@@ -59,12 +64,30 @@ $(document).ready(function() {
 		}
 		
 		//Post values to server
+		var body = JSON.stringify(comment);
+		if (submission === null || submission.body !== body) {
+			submission = {
+				body: body,
+				key: new Date().getTime().toString(36) + '-' + Math.random().toString(36).substring(2),
+				added: false
+			};
+		}
+		var current = submission;
 		var commentPostUrl = form.find("#comment-post-url").val();
 		$.ajax(commentPostUrl, {
 			contentType: 'application/json;charset=utf-8',
-			data: JSON.stringify(comment),
+			data: body,
 			type: 'POST',
-			success: addComment,
+			headers: {
+				'Idempotency-Key': current.key
+			},
+			success: function(commentData) {
+				//Show the comment only once
+				if (!current.added) {
+					current.added = true;
+					addComment(commentData);
+				}
+			},
 			dataType: 'json',
 		});
 		return false;
@@ -0,0 +1,241 @@
+package org.pfs.de.akismet.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pfs.de.akismet.AkismetCheckResult;
+import org.pfs.de.akismet.AkismetCheckResult.ResultType;
+import org.pfs.de.akismet.AkismetCommentData;
+import org.pfs.de.akismet.AkismetException;
+import org.pfs.de.akismet.AkismetUnavailableException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CircuitBreakerAkismetApi}.
+ * @author Martin Dreier
+ */
+public class CircuitBreakerAkismetApiTest {
+
+    /**
+     * Akismet API which fails or answers late on request.
+     */
+    private static class StubAkismetApi implements AkismetApi {
+
+        /**
+         * Whether calls fail.
+         */
+        private volatile boolean failing;
+
+        /**
+         * Time in milliseconds each call takes.
+         */
+        private volatile long delay;
+
+        /**
+         * Number of calls.
+         */
+        private volatile int calls;
+
+        @Override
+        public AkismetCheckResult sendRequest(AkismetUrls url, AkismetCommentData commentData, String apiKey) throws AkismetException {
+            calls++;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new AkismetException("Interrupted");
+                }
+            }
+            if (failing) {
+                throw new AkismetException("Failed");
+            }
+            return new AkismetCheckResult(ResultType.HAM);
+        }
+
+        @Override
+        public boolean checkApiKey(String apiKey, String homepage) throws AkismetException {
+            return true;
+        }
+    }
+
+    /**
+     * The delegate of the breaker.
+     */
+    private StubAkismetApi delegate;
+
+    /**
+     * The tested breaker.
+     */
+    private CircuitBreakerAkismetApi breaker;
+
+    @Before
+    public void setUp() {
+        delegate = new StubAkismetApi();
+        breaker = new CircuitBreakerAkismetApi(delegate);
+        breaker.setFailureThreshold(3);
+        breaker.setOpenTime(100);
+        breaker.setLatencyBudget(200);
+    }
+
+    @After
+    public void tearDown() {
+        breaker.stop();
+    }
+
+    /**
+     * Send a comment check through the breaker.
+     * @return The check result.
+     * @throws AkismetException
+     */
+    private AkismetCheckResult check() throws AkismetException {
+        return breaker.sendRequest(AkismetUrls.COMMENT_CHECK, new AkismetCommentData(), "key");
+    }
+
+    /**
+     * Send comment checks which are expected to fail.
+     * @param count The number of checks.
+     */
+    private void failChecks(int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                check();
+                fail("Check should have failed");
+            } catch (AkismetException e) {
+                //Expected
+            }
+        }
+    }
+
+    /**
+     * Calls are passed to the delegate while the breaker is closed.
+     */
+    @Test
+    public void testClosed() throws AkismetException {
+        assertEquals(ResultType.HAM, check().getResult());
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(1, delegate.calls);
+    }
+
+    /**
+     * The breaker opens after the configured number of consecutive failures
+     * and rejects calls without calling the delegate.
+     */
+    @Test
+    public void testOpen() {
+        delegate.failing = true;
+        failChecks(2);
+        assertEquals("CLOSED", breaker.getState());
+        failChecks(1);
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(1, breaker.getTripCount());
+
+        try {
+            check();
+            fail("Check should have been rejected");
+        } catch (AkismetUnavailableException e) {
+            //Expected
+        } catch (AkismetException e) {
+            fail("Rejected check should report the service as unavailable");
+        }
+        assertEquals(3, delegate.calls);
+        assertEquals(1, breaker.getRejectedCalls());
+    }
+
+    /**
+     * A success resets the number of consecutive failures.
+     */
+    @Test
+    public void testSuccessResetsFailures() throws AkismetException {
+        delegate.failing = true;
+        failChecks(2);
+        delegate.failing = false;
+        check();
+        assertEquals(0, breaker.getConsecutiveFailures());
+        delegate.failing = true;
+        failChecks(2);
+        assertEquals("CLOSED", breaker.getState());
+    }
+
+    /**
+     * Calls exceeding the latency budget fail as unavailable.
+     */
+    @Test
+    public void testLatencyBudget() throws AkismetException {
+        delegate.delay = 1000;
+        long start = System.currentTimeMillis();
+        try {
+            check();
+            fail("Check should have exceeded the latency budget");
+        } catch (AkismetUnavailableException e) {
+            //Expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, breaker.getTimeouts());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    /**
+     * Calls beyond the maximum number of concurrent calls fail as unavailable
+     * without counting as failed.
+     */
+    @Test
+    public void testMaxConcurrentCalls() throws Exception {
+        breaker.setMaxConcurrentCalls(1);
+        breaker.setLatencyBudget(2000);
+        delegate.delay = 500;
+        Thread pending = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (AkismetException e) {
+                    //Checked by the number of failures
+                }
+            }
+        };
+        pending.start();
+        while (delegate.calls == 0) {
+            Thread.sleep(10);
+        }
+        try {
+            check();
+            fail("Check should have been rejected");
+        } catch (AkismetUnavailableException e) {
+            //Expected
+        }
+        pending.join();
+        assertEquals(1, breaker.getRejectedCalls());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertEquals(1, delegate.calls);
+    }
+
+    /**
+     * After the open time a successful probe closes the breaker.
+     */
+    @Test
+    public void testProbeCloses() throws Exception {
+        delegate.failing = true;
+        failChecks(3);
+        assertEquals("OPEN", breaker.getState());
+        Thread.sleep(150);
+        delegate.failing = false;
+        assertEquals(ResultType.HAM, check().getResult());
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    /**
+     * After the open time a failing probe opens the breaker again.
+     */
+    @Test
+    public void testProbeReopens() throws Exception {
+        delegate.failing = true;
+        failChecks(3);
+        Thread.sleep(150);
+        failChecks(1);
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+        assertEquals(4, delegate.calls);
+    }
+}
@@ -0,0 +1,110 @@
+package org.pfs.de.beans;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SummaryExtractor}. The summaries are compared with
+ * summaries of the text of the document parsed by Jsoup.
+ * @author Martin Dreier
+ */
+public class SummaryExtractorTest {
+
+    /**
+     * Length of the summaries.
+     */
+    private static final int SUMMARY_LENGTH = 350;
+
+    /**
+     * Create the summary from the text of the Jsoup document.
+     * @param html The HTML content.
+     * @return The expected summary.
+     */
+    private String jsoupSummary(String html) {
+        String parsedContent = Jsoup.parse(html).text();
+        if (parsedContent.length() > SUMMARY_LENGTH) {
+            int indexOfLastSpace = parsedContent.lastIndexOf(' ', SUMMARY_LENGTH);
+            if (indexOfLastSpace < 10) {
+                indexOfLastSpace = 10;
+            }
+            return parsedContent.substring(0, indexOfLastSpace) + "...";
+        }
+        return parsedContent;
+    }
+
+    /**
+     * Check the summary of HTML content.
+     * @param html The HTML content.
+     */
+    private void assertSummary(String html) {
+        assertEquals("Summary differs for " + html, jsoupSummary(html), SummaryExtractor.extract(html, SUMMARY_LENGTH));
+    }
+
+    /**
+     * Repeat a string.
+     * @param text The string.
+     * @param count Number of repetitions.
+     * @return The repeated string.
+     */
+    private String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int index = 0; index < count; index++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Test short posts which are not truncated.
+     */
+    @Test
+    public void testShortPosts() {
+        assertSummary("");
+        assertSummary("<html><body></body></html>");
+        assertSummary("<html>\n<head>\n<title></title>\n</head>\n<body>\n<p>Ein kurzer Beitrag.</p>\n</body>\n</html>");
+        assertSummary("<p>Erster Absatz</p><p>Zweiter <strong>fetter</strong> und <em>kursiver</em> Absatz</p>");
+        assertSummary("<p>Zeile<br>Zeile<br/>Zeile</p><ul><li>Eins</li><li>Zwei</li></ul>");
+        assertSummary("<p><a href=\"http://www.example.com/?a=1&amp;b=2\" title=\"a > b\">Link</a> danach</p>");
+    }
+
+    /**
+     * Test entity decoding.
+     */
+    @Test
+    public void testEntities() {
+        assertSummary("<p>Gr&uuml;&szlig;e &amp; K&uuml;sse &ndash; &quot;Zitat&quot;&nbsp;Ende</p>");
+        assertSummary("<p>&#65;&#x42;&#X43; &#xD800; &#99999999999; &#; &#x;</p>");
+        assertSummary("<p>&copy &copyright &amp &unknown; & &&amp; &lt;p&gt;</p>");
+    }
+
+    /**
+     * Test long posts which are truncated at a word boundary.
+     */
+    @Test
+    public void testLongPosts() {
+        assertSummary("<p>" + repeat("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ", 20) + "</p>");
+        assertSummary(repeat("<p>Ein Absatz mit <a href=\"#\">Link</a> und&nbsp;Text.</p>\n", 50));
+        assertSummary(repeat("<div><h2>Titel</h2><p>Text &amp; mehr Text</p></div>", 40));
+        assertSummary("<p>" + repeat("x", 345) + " " + repeat("y", 20) + "</p>");
+        assertSummary("<p>" + repeat("z", 350) + "</p>");
+        assertSummary("<p>" + repeat("z", 350) + "</p>   ");
+        assertSummary("<p>" + repeat("z", 351) + "</p>");
+    }
+
+    /**
+     * Test pathological content.
+     */
+    @Test
+    public void testPathologicalPosts() {
+        assertSummary(repeat("Wort", 200));
+        assertSummary(repeat(" \n\t ", 500) + "Text" + repeat("&nbsp;", 400));
+        assertSummary(repeat("<span>", 1000) + "Tief verschachtelt" + repeat("</span>", 1000));
+        assertSummary("<p>Vorher</p><script>document.write('<p>nicht</p>');</script><style>p { }</style><p>Nachher</p>");
+        assertSummary("<p>Kommentar <!-- <p>versteckt</p> --> sichtbar</p><p>a < b und c<d</p>");
+        assertSummary("<pre>  Vorformatiert\n    einger\u00fcckt</pre><p>  normal   </p>");
+        assertSummary("<p>Offen<div>ohne</div> Ende</p></p>unvollst\u00e4ndig <b");
+        assertSummary("<p>" + repeat("<b>a</b> ", 500) + "</p>");
+    }
+}
@@ -5,13 +5,18 @@
 package org.pfs.de.components;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
 import org.easymock.EasyMock;
 import org.easymock.IMockBuilder;
 import org.hippoecm.hst.core.component.HstRequest;
 import org.junit.Test;
 import org.pfs.de.test.AbstractComponentTest;
 import static org.easymock.EasyMock.*;
+import org.hippoecm.hst.content.beans.query.HstQuery;
+import org.hippoecm.hst.content.beans.query.HstQueryManager;
 import org.hippoecm.hst.content.beans.query.HstQueryResult;
+import org.hippoecm.hst.content.beans.query.filter.Filter;
 import static org.junit.Assert.*;
 import org.hippoecm.hst.content.beans.standard.HippoBean;
 import org.hippoecm.hst.content.beans.standard.HippoFolder;
@@ -47,7 +52,7 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
     }
        
     /**
-     * Test that the query result is set to the request.
+     * Test that the blog entries of the query result are set to the request.
      * @throws Exception 
      */
     @Test
@@ -77,8 +82,9 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
         assertNotNull("Component parameters info not set", mockRequest.getAttribute("info"));
         assertSame("Incorrect component parameter info in request", info, mockRequest.getAttribute("info"));
         
-        assertNotNull("Query result missing not set", mockRequest.getAttribute("result"));
-        assertSame("Incorrec query result in request", queryResult, mockRequest.getAttribute("result"));
+        List<?> documents = (List<?>) mockRequest.getAttribute("documents");
+        assertNotNull("Documents not set", documents);
+        assertEquals("Incorrect number of documents", 1, documents.size());
     }
 
     /**
@@ -91,9 +97,16 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
         //Set up the required objects
         HippoBean scope = new HippoFolder();
         HstQueryResult queryResult = createQueryResultMock(11, BlogDocument.class);
-        setUpQuery(scope, BlogDocument.class, queryResult);
+        HstQuery query = setUpQuery(scope, BlogDocument.class, queryResult);
         PageableListInfo info = EasyMock.createMock(PageableListInfo.class);
         
+        //Only the requested page is read
+        reset(query);
+        query.setLimit(5);
+        query.setOffset(5);
+        expect(query.execute()).andReturn(queryResult);
+        replay(query);
+        
         //Record method calls
         expect(componentUnderTest.getComponentParametersInfo(mockRequest)).andReturn(info);
         expect(componentUnderTest.getContentBean(mockRequest)).andReturn(scope);
@@ -107,16 +120,70 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
         componentUnderTest.doBeforeRender(mockRequest, mockResponse);
         
         //Check metod calls
-        verify(componentUnderTest);
+        verify(componentUnderTest, query);
         
         //Check paging
         ArrayList<Integer> pages = (ArrayList<Integer>) mockRequest.getAttribute("pages");
         assertNotNull("Pages not set", pages);
         assertEquals("Incorrect page count", 3, pages.size());
+        assertEquals("Incorrect page", 2, mockRequest.getAttribute("page"));
+    }
+    
+    /**
+     * Test that a page cursor restricts the query instead of an offset.
+     * @throws Exception 
+     */
+    @Test
+    public void testPagingWithCursor() throws Exception {
         
-        Integer begin = (Integer) mockRequest.getAttribute("begin");
-        assertNotNull("Begin index not set", begin);
-        assertEquals("Incorrect begin index", 5, begin.intValue());
+        //Set up the required objects
+        HippoBean scope = new HippoFolder();
+        HstQueryResult queryResult = createQueryResultMock(5, BlogDocument.class);
+        HstQueryResult countResult = createQueryResultMock(11, BlogDocument.class);
+        HstQueryManager queryManager = EasyMock.createMock(HstQueryManager.class);
+        HstQuery query = EasyMock.createMock(HstQuery.class);
+        HstQuery countQuery = EasyMock.createMock(HstQuery.class);
+        Filter filter = EasyMock.createMock(Filter.class);
+        Filter sameDate = EasyMock.createMock(Filter.class);
+        PageableListInfo info = EasyMock.createMock(PageableListInfo.class);
+        
+        //Record method calls
+        expect(componentUnderTest.getComponentParametersInfo(mockRequest)).andReturn(info);
+        expect(componentUnderTest.getContentBean(mockRequest)).andReturn(scope);
+        expect(componentUnderTest.getQueryManager(mockRequest)).andStubReturn(queryManager);
+        expect(info.getPageSize()).andStubReturn(5);
+        expect(queryManager.createQuery(scope, BlogDocument.class)).andReturn(query).andReturn(countQuery);
+        query.addOrderByDescending("hippostdpubwf:publicationDate");
+        query.addOrderByDescending("jcr:uuid");
+        query.setLimit(5);
+        expect(query.createFilter()).andReturn(filter).andReturn(sameDate);
+        filter.addLessThan(eq("hippostdpubwf:publicationDate"), isA(Calendar.class));
+        sameDate.addEqualTo(eq("hippostdpubwf:publicationDate"), isA(Calendar.class));
+        sameDate.addLessThan("jcr:uuid", "0c8a4a2e-6b1f-4f4e-9a8e-3c1d2b7e5f60");
+        expect(filter.addOrFilter(sameDate)).andReturn(filter);
+        query.setFilter(filter);
+        expect(query.execute()).andReturn(queryResult);
+        countQuery.setLimit(1);
+        expect(countQuery.execute()).andReturn(countResult);
+        
+        //Prepare test
+        mockRequest.addParameter("page", "2");
+        mockRequest.addParameter("after", "1356998400000:0C8A4A2E-6B1F-4F4E-9A8E-3C1D2B7E5F60");
+        replay(componentUnderTest, info, queryManager, query, countQuery, filter, sameDate);
+        
+        //Test method
+        componentUnderTest.doBeforeRender(mockRequest, mockResponse);
+        
+        //Check metod calls
+        verify(componentUnderTest, queryManager, query, countQuery, filter, sameDate);
+        
+        //Check paging
+        ArrayList<Integer> pages = (ArrayList<Integer>) mockRequest.getAttribute("pages");
+        assertNotNull("Pages not set", pages);
+        assertEquals("Incorrect page count", 3, pages.size());
+        List<?> documents = (List<?>) mockRequest.getAttribute("documents");
+        assertNotNull("Documents not set", documents);
+        assertEquals("Incorrect number of documents", 5, documents.size());
     }
     
     /**
@@ -129,13 +196,18 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
         //Set up the required objects
         HippoBean scope = new HippoFolder();
         HstQueryResult queryResult = createQueryResultMock(1, BlogDocument.class);
-        setUpQuery(scope, BlogDocument.class, queryResult);
+        HstQuery query = setUpQuery(scope, BlogDocument.class, queryResult);
         PageableListInfo info = EasyMock.createMock(PageableListInfo.class);
         
         //Record method calls
         expect(componentUnderTest.getComponentParametersInfo(mockRequest)).andReturn(info);
         expect(componentUnderTest.getContentBean(mockRequest)).andReturn(scope);
         expect(info.getPageSize()).andStubReturn(5);
+        reset(query);
+        query.setLimit(5);
+        query.setOffset(0);
+        expect(query.execute()).andReturn(queryResult);
+        replay(query);
         
         //Prepare test
         replay(componentUnderTest, info);
@@ -144,14 +216,10 @@ public class BlogOverviewTest extends AbstractComponentTest<BlogOverview> {
         componentUnderTest.doBeforeRender(mockRequest, mockResponse);
         
         //Check metod calls
-        verify(componentUnderTest);
+        verify(componentUnderTest, query);
         
         //Check paging
         ArrayList<Integer> pages = (ArrayList<Integer>) mockRequest.getAttribute("pages");
         assertNull("Pages set for single page", pages);
-        
-        Integer begin = (Integer) mockRequest.getAttribute("begin");
-        assertNotNull("Begin index not set", begin);
-        assertEquals("Incorrect begin index", 0, begin.intValue());
     }
 }
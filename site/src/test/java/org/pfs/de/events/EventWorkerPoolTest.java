@@ -0,0 +1,128 @@
+package org.pfs.de.events;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link EventWorkerPool}.
+ * @author Martin Dreier
+ */
+public class EventWorkerPoolTest {
+
+    /**
+     * Task which counts its runs and leaves its changes to the batch.
+     */
+    private static class BatchedTask implements EventWorkerPool.Task {
+
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public boolean run(Session session) throws Exception {
+            runs.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Task which counts its runs and saves on its own.
+     */
+    private static class SavingTask implements EventWorkerPool.Task {
+
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public boolean run(Session session) throws Exception {
+            runs.incrementAndGet();
+            session.save();
+            return false;
+        }
+    }
+
+    /**
+     * The session of the worker.
+     */
+    private Session session;
+
+    /**
+     * The tested pool.
+     */
+    private EventWorkerPool pool;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        session = createNiceMock(Session.class);
+        Repository repository = createNiceMock(Repository.class);
+        expect(repository.login((Credentials) anyObject())).andReturn(session).anyTimes();
+        replay(repository);
+        pool = new EventWorkerPool();
+        pool.setRepository(repository);
+        pool.setCredentials(new SimpleCredentials("worker", new char[0]));
+        pool.setWorkerCount(1);
+        pool.setBatchSize(2);
+        pool.setBatchInterval(10000);
+    }
+
+    /**
+     * If saving a batch fails, each task is run and saved again on its own.
+     */
+    @Test
+    public void testFailedBatch() throws Exception {
+        session.save();
+        expectLastCall().andThrow(new RepositoryException("Conflict")).once();
+        session.save();
+        expectLastCall().times(2);
+        replay(session);
+
+        BatchedTask first = new BatchedTask();
+        BatchedTask second = new BatchedTask();
+        pool.start();
+        pool.submit("key", first);
+        pool.submit("key", second);
+        pool.stop();
+
+        verify(session);
+        assertEquals(2, first.runs.get());
+        assertEquals(2, second.runs.get());
+        assertEquals(0, pool.getSavedBatches());
+        assertEquals(1, pool.getFailedBatches());
+        assertEquals(2, pool.getProcessed());
+    }
+
+    /**
+     * If a task saving on its own fails with the changes of the batch, the
+     * batch is saved task by task and the failed task is run again on its own.
+     */
+    @Test
+    public void testFailedTaskWithBatch() throws Exception {
+        session.save();
+        expectLastCall().andThrow(new RepositoryException("Conflict")).once();
+        session.save();
+        expectLastCall().times(2);
+        replay(session);
+
+        BatchedTask batched = new BatchedTask();
+        SavingTask saving = new SavingTask();
+        pool.setBatchSize(10);
+        pool.start();
+        pool.submit("key", batched);
+        pool.submit("key", saving);
+        pool.stop();
+
+        verify(session);
+        assertEquals(2, batched.runs.get());
+        assertEquals(2, saving.runs.get());
+        assertEquals(1, pool.getFailedBatches());
+        assertEquals(2, pool.getProcessed());
+    }
+}
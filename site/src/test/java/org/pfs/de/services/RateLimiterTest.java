@@ -0,0 +1,79 @@
+package org.pfs.de.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RateLimiter}.
+ * @author Martin Dreier
+ */
+public class RateLimiterTest {
+
+    /**
+     * The tested limiter.
+     */
+    private RateLimiter limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new RateLimiter();
+        limiter.setCapacity(3);
+        limiter.setInterval(100);
+    }
+
+    /**
+     * A burst up to the capacity is permitted, further requests are rejected
+     * with the time until the next token.
+     */
+    @Test
+    public void testBurst() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("client"));
+        }
+        long wait = limiter.acquire("client");
+        assertTrue(wait > 0);
+        assertTrue(wait <= 100);
+        assertEquals(1, limiter.getRejected());
+    }
+
+    /**
+     * Each key has its own bucket.
+     */
+    @Test
+    public void testKeys() {
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("client");
+        }
+        assertTrue(limiter.acquire("client") > 0);
+        assertEquals(0, limiter.acquire("other"));
+        assertEquals(2, limiter.getSize());
+    }
+
+    /**
+     * A bucket gains a token per interval.
+     */
+    @Test
+    public void testRefill() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("client");
+        }
+        assertTrue(limiter.acquire("client") > 0);
+        Thread.sleep(150);
+        assertEquals(0, limiter.acquire("client"));
+        assertTrue(limiter.acquire("client") > 0);
+    }
+
+    /**
+     * The number of keys is bounded.
+     */
+    @Test
+    public void testMaxEntries() {
+        limiter.setMaxEntries(10);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire("client" + i);
+            assertTrue(limiter.getSize() <= 10);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.pfs.de.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pfs.de.services.model.CommentDocumentRepresentation;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SubmissionCache}.
+ * @author Martin Dreier
+ */
+public class SubmissionCacheTest {
+
+    /**
+     * The tested cache.
+     */
+    private SubmissionCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new SubmissionCache();
+        cache.setTtl(100);
+    }
+
+    /**
+     * Keys depend on all values and their boundaries.
+     */
+    @Test
+    public void testCreateKey() {
+        assertEquals(SubmissionCache.createKey("a", "b"), SubmissionCache.createKey("a", "b"));
+        assertFalse(SubmissionCache.createKey("a", "b").equals(SubmissionCache.createKey("a", "c")));
+        assertFalse(SubmissionCache.createKey("ab", "").equals(SubmissionCache.createKey("a", "b")));
+        assertEquals(SubmissionCache.createKey("a", null), SubmissionCache.createKey("a", ""));
+    }
+
+    /**
+     * A repeated submission gets the pending submission of the first request,
+     * without a comment.
+     */
+    @Test
+    public void testPending() {
+        assertNull(cache.begin("key"));
+        SubmissionCache.Submission submission = cache.begin("key");
+        assertNotNull(submission);
+        assertNull(submission.getRepresentation());
+        assertEquals(1, cache.getDuplicates());
+    }
+
+    /**
+     * A repeated submission gets the comment and status of the completed first request.
+     */
+    @Test
+    public void testCompleted() {
+        CommentDocumentRepresentation representation = new CommentDocumentRepresentation();
+        assertNull(cache.begin("key"));
+        cache.complete("key", representation, 202);
+        SubmissionCache.Submission submission = cache.begin("key");
+        assertNotNull(submission);
+        assertSame(representation, submission.getRepresentation());
+        assertEquals(202, submission.getStatus());
+    }
+
+    /**
+     * After an aborted submission, the next request begins a new submission.
+     */
+    @Test
+    public void testAborted() {
+        assertNull(cache.begin("key"));
+        cache.abort("key");
+        assertNull(cache.begin("key"));
+        assertEquals(0, cache.getDuplicates());
+    }
+
+    /**
+     * Completed submissions expire after the time to live.
+     */
+    @Test
+    public void testExpired() throws InterruptedException {
+        assertNull(cache.begin("key"));
+        cache.complete("key", new CommentDocumentRepresentation(), 200);
+        Thread.sleep(150);
+        assertNull(cache.begin("key"));
+    }
+
+    /**
+     * The number of submissions is bounded, pending submissions are kept.
+     */
+    @Test
+    public void testMaxEntries() {
+        cache.setMaxEntries(10);
+        assertNull(cache.begin("pending"));
+        for (int i = 0; i < 100; i++) {
+            cache.begin("key" + i);
+            cache.complete("key" + i, new CommentDocumentRepresentation(), 200);
+        }
+        assertTrue(cache.getSize() <= 11);
+        assertNotNull(cache.begin("pending"));
+    }
+}